@@ -0,0 +1,109 @@
+import bench.BugCorpus;
+import bench.BugWorkloads;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark workloads over the search classes, fields created by operations are returned to the pool.
+ */
+public class BugBenchmarkWorkloads implements BugWorkloads {
+
+    static final int POPULATION_SIZE = 20;
+
+    private final BugAcmp.BugStepsCalculator stepsCalculator;
+
+    private boolean[][] wall;
+    private int[] masks;
+
+    private BugField firstField, secondField;
+
+    public BugBenchmarkWorkloads() {
+        this.stepsCalculator = new BugAcmp.BugStepsCalculator(BugField.SITE_N, BugField.SITE_M);
+        stepsCalculator.setUseBitboard(BugField.BITBOARD_CHECK_PATH);
+        stepsCalculator.setUseCorridors(BugField.CORRIDOR_STEPS);
+        stepsCalculator.setTrackVisited(BugField.TRACK_FOOTPRINT);
+    }
+
+    @Override
+    public void setBoards(String first, String second) {
+        this.firstField = BugField.create(BugCorpus.load(first));
+        this.secondField = BugField.create(BugCorpus.load(second));
+
+        this.wall = firstField.getWall();
+        this.masks = firstField.masks;
+
+        // walk uses free masks of the last path check
+        if (stepsCalculator.getResult(wall, masks) < 0) {
+            throw new IllegalArgumentException("There is no path on the board " + first);
+        }
+    }
+
+    @Override
+    public boolean checkPath(boolean bitboard) {
+        return (bitboard ? stepsCalculator.checkPathByMasks(masks) : stepsCalculator.checkPath());
+    }
+
+    @Override
+    public int getSteps() {
+        return stepsCalculator.getSteps();
+    }
+
+    @Override
+    public int create() {
+        BugField field = BugField.create(wall);
+        int steps = field.steps;
+
+        BugField.delete(field);
+        return steps;
+    }
+
+    @Override
+    public int crossover(long seed) {
+        BugField child = BugFieldGeneticAlgorithm.crossover(firstField, secondField, new Random(seed));
+        int steps = child.steps;
+
+        BugField.delete(child);
+        return steps;
+    }
+
+    @Override
+    public int mutation(long seed) {
+        BugField mutant = BugFieldGeneticAlgorithm.mutation(firstField, false, new Random(seed));
+        int steps = mutant.steps;
+
+        BugField.delete(mutant);
+        return steps;
+    }
+
+    @Override
+    public int hardCrossover(int maxCount) {
+        BugField[] bestFields = BugFieldUtils.hardCrossover(firstField, secondField, POPULATION_SIZE, maxCount, null, null);
+
+        int steps = bestFields[0].steps;
+        for (BugField field : bestFields) {
+            BugField.delete(field);
+        }
+
+        return steps;
+    }
+
+    @Override
+    public int hardMutationsWindow(int maxSize) {
+        List<int[]> windows = BugFieldUtils.getHardMutationsWindows(firstField.n, firstField.m, maxSize);
+        int windowIndex = windows.size() / 2;
+
+        BugFieldUtils.BugFieldBestSet bestFields = new BugFieldUtils.BugFieldBestSet(POPULATION_SIZE - 1);
+        int[] totalBestSteps = { firstField.steps };
+
+        new BugFieldUtils.HardMutationsTask(
+                firstField, windows, windowIndex, windowIndex + 1, bestFields, totalBestSteps, null
+        ).evaluate();
+
+        for (BugField field : bestFields.toArray()) {
+            BugField.delete(field);
+        }
+
+        return totalBestSteps[0];
+    }
+}
@@ -0,0 +1,47 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed boards of the benchmarks, resources corpus/{name}.txt: one line per row, '#' is a wall.
+ * There are the empty board, random boards with the given percent of walls and the best known boards.
+ */
+public class BugCorpus {
+
+    public static final String EMPTY = "empty";
+    public static final String RANDOM_10 = "random-10", RANDOM_20 = "random-20", RANDOM_30 = "random-30", RANDOM_40 = "random-40";
+    public static final String BEST_1 = "best-1", BEST_2 = "best-2", BEST_3 = "best-3", BEST_4 = "best-4";
+
+    public static boolean[][] load(String name) {
+        try (InputStream in = BugCorpus.class.getResourceAsStream("/corpus/" + name + ".txt")) {
+            if (in == null) throw new IllegalArgumentException("No board " + name + " in the corpus");
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+
+            List<String> rows = new ArrayList<>();
+            for (String row; (row = reader.readLine()) != null; ) {
+                if (!row.isEmpty()) rows.add(row);
+            }
+
+            boolean[][] wall = new boolean[rows.size()][];
+            for (int i = 0; i < wall.length; ++i) {
+                String row = rows.get(i);
+
+                wall[i] = new boolean[row.length()];
+                for (int j = 0; j < row.length(); ++j) {
+                    wall[i][j] = (row.charAt(j) == '#');
+                }
+            }
+
+            return wall;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluation of one board: path check, walk and the whole field creation.
+ * Steps cache is disabled, otherwise create would measure cache hits.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcache.capacity=0")
+@State(Scope.Thread)
+public class BugEvaluationBenchmark {
+
+    @Param({
+            BugCorpus.EMPTY,
+            BugCorpus.RANDOM_10, BugCorpus.RANDOM_20, BugCorpus.RANDOM_30, BugCorpus.RANDOM_40,
+            BugCorpus.BEST_1, BugCorpus.BEST_2, BugCorpus.BEST_3, BugCorpus.BEST_4
+    })
+    public String board;
+
+    private BugWorkloads workloads;
+
+    @Setup
+    public void setUp() {
+        workloads = BugWorkloads.load();
+        workloads.setBoards(board, board);
+    }
+
+    @Benchmark
+    public boolean checkPath() {
+        return workloads.checkPath(true);
+    }
+
+    @Benchmark
+    public boolean checkPathQueue() {
+        return workloads.checkPath(false);
+    }
+
+    @Benchmark
+    public int getSteps() {
+        return workloads.getSteps();
+    }
+
+    @Benchmark
+    public int create() {
+        return workloads.create();
+    }
+}
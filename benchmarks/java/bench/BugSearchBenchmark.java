@@ -0,0 +1,62 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search operators: GA children and bounded pieces of hardCrossover and hardMutations.
+ * Steps cache is disabled, otherwise repeated operations would measure cache hits.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dcache.capacity=0")
+@State(Scope.Thread)
+public class BugSearchBenchmark {
+
+    @Param({ BugCorpus.RANDOM_20, BugCorpus.BEST_1, BugCorpus.BEST_3 })
+    public String board;
+
+    /**
+     * The other parent of crossovers.
+     */
+    @Param({ BugCorpus.BEST_2 })
+    public String secondBoard;
+
+    @Param({ "6" })
+    public int hardCrossoverCount;
+
+    @Param({ "12" })
+    public int hardMutationsSize;
+
+    private BugWorkloads workloads;
+    private long seed;
+
+    @Setup
+    public void setUp() {
+        workloads = BugWorkloads.load();
+        workloads.setBoards(board, secondBoard);
+    }
+
+    @Benchmark
+    public int crossover() {
+        return workloads.crossover(++seed);
+    }
+
+    @Benchmark
+    public int mutation() {
+        return workloads.mutation(++seed);
+    }
+
+    @Benchmark
+    public int hardCrossover() {
+        return workloads.hardCrossover(hardCrossoverCount);
+    }
+
+    @Benchmark
+    public int hardMutationsWindow() {
+        return workloads.hardMutationsWindow(hardMutationsSize);
+    }
+}
@@ -0,0 +1,50 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walk throughput in bug steps per second (the "steps" counter), so boards of different length are comparable.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcache.capacity=0")
+@State(Scope.Thread)
+public class BugStepsRateBenchmark {
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class StepsCounter {
+        public long steps;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            steps = 0;
+        }
+    }
+
+    @Param({
+            BugCorpus.EMPTY,
+            BugCorpus.RANDOM_10, BugCorpus.RANDOM_20, BugCorpus.RANDOM_30, BugCorpus.RANDOM_40,
+            BugCorpus.BEST_1, BugCorpus.BEST_2, BugCorpus.BEST_3, BugCorpus.BEST_4
+    })
+    public String board;
+
+    private BugWorkloads workloads;
+
+    @Setup
+    public void setUp() {
+        workloads = BugWorkloads.load();
+        workloads.setBoards(board, board);
+    }
+
+    @Benchmark
+    public int getSteps(StepsCounter counter) {
+        int steps = workloads.getSteps();
+        counter.steps += steps;
+        return steps;
+    }
+}
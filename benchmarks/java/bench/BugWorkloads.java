@@ -0,0 +1,45 @@
+package bench;
+
+/**
+ * Hot paths of the search over the current boards.
+ * Search classes are in the default package, which can't be used from the benchmarks package
+ * (and JMH doesn't allow benchmarks in the default package), so they are called through this interface.
+ */
+public interface BugWorkloads {
+
+    /**
+     * Boards from the corpus: the first one is evaluated and mutated, the second one is the other parent.
+     */
+    void setBoards(String first, String second);
+
+    boolean checkPath(boolean bitboard);
+
+    int getSteps();
+
+    /**
+     * @return steps of the field created from the first board
+     */
+    int create();
+
+    int crossover(long seed);
+
+    int mutation(long seed);
+
+    /**
+     * @return best steps of hardCrossover with blocks count up to maxCount
+     */
+    int hardCrossover(int maxCount);
+
+    /**
+     * @return best steps of the window from the middle of hardMutations windows with the given size
+     */
+    int hardMutationsWindow(int maxSize);
+
+    static BugWorkloads load() {
+        try {
+            return (BugWorkloads) Class.forName("BugBenchmarkWorkloads").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -90,6 +90,26 @@ public class BugAcmp implements Runnable{
         long[][] colors;
         long color;
 
+        boolean useBitboard;
+        int[] wallMasks, freeMasks, reachedMasks;
+
+        static final int NO_CORRIDOR = -1, NOT_LAZY = -1;
+        static final int NO_PASS = 0, FORWARD_PASS = 1, BACKWARD_PASS = 2;
+        static final int MIN_CORRIDOR_SIZE = 3;
+
+        boolean useCorridors;
+        int[][] corridorIds;
+        int corridorsCount, corridorCellsCount;
+        int[] chainMasks, leftChainMasks;
+        int[] corridorStarts, corridorSizes, corridorValues;
+        int[] forwardDirections, backwardDirections;
+        int[] forwardExitDirections, backwardExitDirections;
+        int[] corridorCellsX, corridorCellsY;
+        int[] chainX, chainY;
+
+        boolean trackVisited;
+        int[] visitedMasks;
+
         int[][] counts;
 
         static final int INF = Integer.MAX_VALUE;
@@ -116,6 +136,37 @@ public class BugAcmp implements Runnable{
             this.colors = new long[n][m];
             this.color = 0;
 
+            this.useBitboard = false;
+            this.wallMasks = new int[n];
+            this.freeMasks = new int[n];
+            this.reachedMasks = new int[n];
+
+            this.useCorridors = false;
+            this.corridorIds = new int[n][m];
+            for (int[] row : corridorIds) {
+                Arrays.fill(row, NO_CORRIDOR);
+            }
+
+            this.chainMasks = new int[n];
+            this.leftChainMasks = new int[n];
+
+            int maxCorridorsCount = n * m / MIN_CORRIDOR_SIZE + 1;
+            this.corridorStarts = new int[maxCorridorsCount];
+            this.corridorSizes = new int[maxCorridorsCount];
+            this.corridorValues = new int[maxCorridorsCount];
+            this.forwardDirections = new int[maxCorridorsCount];
+            this.backwardDirections = new int[maxCorridorsCount];
+            this.forwardExitDirections = new int[maxCorridorsCount];
+            this.backwardExitDirections = new int[maxCorridorsCount];
+
+            this.corridorCellsX = new int[n * m];
+            this.corridorCellsY = new int[n * m];
+            this.chainX = new int[n * m];
+            this.chainY = new int[n * m];
+
+            this.trackVisited = false;
+            this.visitedMasks = new int[n];
+
             this.counts = new int[n][m];
             Arrays.fill(counts[0], INF);
             Arrays.fill(counts[n - 1], INF);
@@ -156,58 +207,550 @@ public class BugAcmp implements Runnable{
             return colors[endX][endY] == color;
         }
 
+        /**
+         * Bitboard engine is available only if each row fits into one int.
+         */
+        public void setUseBitboard(boolean useBitboard) {
+            this.useBitboard = useBitboard && m < Integer.SIZE;
+        }
+
+        private void fillWallMasks() {
+            for (int i = 0; i < n; ++i) {
+                int rowMask = 0;
+                for (int j = 0; j < m; ++j) {
+                    if (wall[i][j]) rowMask |= 1 << j;
+                }
+
+                wallMasks[i] = rowMask;
+            }
+        }
+
+        private void fillFreeMasks(int[] wallMasks) {
+            int rowLimit = (1 << m) - 1;
+
+            for (int i = 0; i < n; ++i) {
+                freeMasks[i] = ~wallMasks[i] & rowLimit;
+            }
+        }
+
+        public boolean checkPathByMasks() {
+            fillWallMasks();
+            return checkPathByMasks(wallMasks);
+        }
+
+        /**
+         * Flood fill over row masks (bit j of wallMasks[i] is set if cell (i, j) is a wall):
+         * rows are expanded by neighbour rows and filled horizontally
+         * until reached masks stop changing.
+         */
+        public boolean checkPathByMasks(int[] wallMasks) {
+            fillFreeMasks(wallMasks);
+            Arrays.fill(reachedMasks, 0);
+
+            reachedMasks[startX] = fillRow((1 << startY) & freeMasks[startX], freeMasks[startX]);
+
+            int endBit = 1 << endY;
+            for (boolean changed = true; changed; ) {
+                changed = false;
+
+                for (int i = 1; i < nInner; ++i) {
+                    changed |= expandRow(i);
+                }
+
+                for (int i = nInner - 1; i > 0; --i) {
+                    changed |= expandRow(i);
+                }
+
+                if ((reachedMasks[endX] & endBit) != 0) return true;
+            }
+
+            return false;
+        }
+
+        private boolean expandRow(int row) {
+            int free = freeMasks[row];
+            int reached = reachedMasks[row];
+
+            int expanded = reached | ((reachedMasks[row - 1] | reachedMasks[row + 1]) & free);
+            if (expanded == reached) return false;
+
+            reachedMasks[row] = fillRow(expanded, free);
+            return true;
+        }
+
+        /**
+         * Kogge-Stone occluded fill of seeds through free cells in both directions.
+         */
+        private static int fillRow(int seeds, int free) {
+            int left = seeds, leftFree = free;
+            left |= leftFree & (left << 1); leftFree &= leftFree << 1;
+            left |= leftFree & (left << 2); leftFree &= leftFree << 2;
+            left |= leftFree & (left << 4); leftFree &= leftFree << 4;
+            left |= leftFree & (left << 8); leftFree &= leftFree << 8;
+            left |= leftFree & (left << 16);
+
+            int right = seeds, rightFree = free;
+            right |= rightFree & (right >>> 1); rightFree &= rightFree >>> 1;
+            right |= rightFree & (right >>> 2); rightFree &= rightFree >>> 2;
+            right |= rightFree & (right >>> 4); rightFree &= rightFree >>> 4;
+            right |= rightFree & (right >>> 8); rightFree &= rightFree >>> 8;
+            right |= rightFree & (right >>> 16);
+
+            return left | right;
+        }
+
         public int getResult(boolean[][] wall) {
             this.wall = wall;
 
-            if (!checkPath()) {
+            boolean pathExists = (useBitboard ? checkPathByMasks() : checkPath());
+            if (!pathExists) {
+                return -1;
+            }
+
+            return getSteps();
+        }
+
+        public int getResult(boolean[][] wall, int[] wallMasks) {
+            this.wall = wall;
+
+            boolean pathExists = (useBitboard ? checkPathByMasks(wallMasks) : checkPath());
+            if (!pathExists) {
                 return -1;
             }
 
             return getSteps();
         }
 
+        /**
+         * Corridors are built over row masks, so they are available only if each row fits into one int.
+         */
+        public void setUseCorridors(boolean useCorridors) {
+            this.useCorridors = useCorridors && m < Integer.SIZE;
+        }
+
+        private boolean isFree(int x, int y) {
+            return ((freeMasks[x] >>> y) & 1) != 0;
+        }
+
+        private boolean isChainCell(int x, int y) {
+            return ((chainMasks[x] >>> y) & 1) != 0;
+        }
+
+        private static int getDirection(int fromX, int fromY, int toX, int toY) {
+            for (int dir = 0; dir < steps.length; ++dir) {
+                if (fromX + steps[dir][0] == toX && fromY + steps[dir][1] == toY) return dir;
+            }
+
+            return -1;
+        }
+
+        /**
+         * Marks free cells with exactly two free neighbours (bit-sliced sum of four neighbour masks).
+         */
+        private void fillChainMasks() {
+            for (int i = 1; i < nInner; ++i) {
+                int free = freeMasks[i];
+
+                int up = freeMasks[i - 1], down = freeMasks[i + 1];
+                int left = free << 1, right = free >>> 1;
+
+                int verticalSum = up ^ down, verticalCarry = up & down;
+                int horizontalSum = left ^ right, horizontalCarry = left & right;
+
+                int countLowBit = verticalSum ^ horizontalSum;
+                int countHighBit = verticalCarry ^ horizontalCarry ^ (verticalSum & horizontalSum);
+
+                chainMasks[i] = free & ~countLowBit & countHighBit;
+            }
+
+            chainMasks[startX] &= ~(1 << startY);
+            chainMasks[endX] &= ~(1 << endY);
+        }
+
+        /**
+         * Collapses chains of degree 2 cells (d_1..d_k) into corridors of cells d_2..d_(k-1).
+         * Bug can't turn back inside such corridor while all its counts are equal
+         * and the cell it came from has bigger count, so the corridor can be passed at once.
+         */
+        private void buildCorridors() {
+            for (int cell = 0; cell < corridorCellsCount; ++cell) {
+                corridorIds[corridorCellsX[cell]][corridorCellsY[cell]] = NO_CORRIDOR;
+            }
+
+            corridorsCount = 0;
+            corridorCellsCount = 0;
+
+            if (!useBitboard) {
+                fillWallMasks();
+                fillFreeMasks(wallMasks);
+            }
+
+            fillChainMasks();
+            System.arraycopy(chainMasks, 0, leftChainMasks, 0, n);
+
+            for (int i = 1; i < nInner; ++i) {
+                for (int rowMask = leftChainMasks[i]; rowMask != 0; rowMask &= rowMask - 1) {
+                    int j = Integer.numberOfTrailingZeros(rowMask);
+                    if (((leftChainMasks[i] >>> j) & 1) == 0) continue;
+
+                    int outerDir = -1;
+                    for (int dir = 0; dir < steps.length && outerDir == -1; ++dir) {
+                        int x = i + steps[dir][0], y = j + steps[dir][1];
+                        if (isFree(x, y) && !isChainCell(x, y)) outerDir = dir;
+                    }
+
+                    // middle of the chain or isolated cycle
+                    if (outerDir == -1) continue;
+
+                    int chainSize = 0;
+                    for (int x = i, y = j, prevX = i + steps[outerDir][0], prevY = j + steps[outerDir][1]; ; ) {
+                        chainX[chainSize] = x;
+                        chainY[chainSize] = y;
+                        ++chainSize;
+
+                        leftChainMasks[x] &= ~(1 << y);
+
+                        int nextX = -1, nextY = -1;
+                        for (int[] step : steps) {
+                            int toX = x + step[0], toY = y + step[1];
+                            if (!isFree(toX, toY) || (toX == prevX && toY == prevY)) continue;
+
+                            nextX = toX;
+                            nextY = toY;
+                        }
+
+                        if (((leftChainMasks[nextX] >>> nextY) & 1) == 0) break;
+
+                        prevX = x;
+                        prevY = y;
+                        x = nextX;
+                        y = nextY;
+                    }
+
+                    addCorridor(chainSize);
+                }
+            }
+        }
+
+        private void addCorridor(int chainSize) {
+            int size = chainSize - 2;
+            if (size < MIN_CORRIDOR_SIZE) return;
+
+            int corridor = corridorsCount++;
+
+            corridorStarts[corridor] = corridorCellsCount;
+            corridorSizes[corridor] = size;
+            corridorValues[corridor] = NOT_LAZY;
+
+            for (int index = 1; index <= size; ++index, ++corridorCellsCount) {
+                corridorCellsX[corridorCellsCount] = chainX[index];
+                corridorCellsY[corridorCellsCount] = chainY[index];
+                corridorIds[chainX[index]][chainY[index]] = corridor;
+            }
+
+            forwardDirections[corridor] = getDirection(chainX[0], chainY[0], chainX[1], chainY[1]);
+            forwardExitDirections[corridor] = getDirection(chainX[size - 1], chainY[size - 1], chainX[size], chainY[size]);
+
+            backwardDirections[corridor] = getDirection(chainX[size + 1], chainY[size + 1], chainX[size], chainY[size]);
+            backwardExitDirections[corridor] = getDirection(chainX[2], chainY[2], chainX[1], chainY[1]);
+        }
+
+        /**
+         * While corridor is lazy all its cells have the same count,
+         * but only first two and last two cells are really stored in counts.
+         */
+        private void materializeCorridor(int corridor) {
+            int value = corridorValues[corridor];
+            if (value == NOT_LAZY) return;
+
+            for (int cell = corridorStarts[corridor], end = cell + corridorSizes[corridor]; cell < end; ++cell) {
+                counts[corridorCellsX[cell]][corridorCellsY[cell]] = value;
+            }
+
+            corridorValues[corridor] = NOT_LAZY;
+        }
+
+        private void materializeCorridors() {
+            for (int corridor = 0; corridor < corridorsCount; ++corridor) {
+                materializeCorridor(corridor);
+            }
+        }
+
+        /**
+         * Checks if bug standing on the end cell of corridor (count is not increased yet)
+         * will pass the whole corridor without turns back.
+         * If so, counts of all corridor cells (including landing one) are increased.
+         */
+        private int passCorridor(int corridor, int x, int y, int direction) {
+            int first = corridorStarts[corridor];
+            int last = first + corridorSizes[corridor] - 1;
+
+            int pass;
+            if (direction == forwardDirections[corridor] && x == corridorCellsX[first] && y == corridorCellsY[first]) {
+                pass = FORWARD_PASS;
+            } else if (direction == backwardDirections[corridor] && x == corridorCellsX[last] && y == corridorCellsY[last]) {
+                pass = BACKWARD_PASS;
+            } else {
+                return NO_PASS;
+            }
+
+            int value = corridorValues[corridor];
+            if (value == NOT_LAZY) {
+                value = counts[x][y];
+                for (int cell = first; cell <= last; ++cell) {
+                    if (counts[corridorCellsX[cell]][corridorCellsY[cell]] != value) return NO_PASS;
+                }
+            }
+
+            int previousCount = counts[x - steps[direction][0]][y - steps[direction][1]];
+            if (previousCount <= value) return NO_PASS;
+
+            ++value;
+            corridorValues[corridor] = value;
+
+            counts[corridorCellsX[first]][corridorCellsY[first]] = value;
+            counts[corridorCellsX[first + 1]][corridorCellsY[first + 1]] = value;
+            counts[corridorCellsX[last - 1]][corridorCellsY[last - 1]] = value;
+            counts[corridorCellsX[last]][corridorCellsY[last]] = value;
+
+            return pass;
+        }
+
         public int getSteps() {
-            int result = 0;
+            resetCounts();
+            return walk(startX, startY, -1, 0);
+        }
 
+        private void resetCounts() {
             for (int i = 1; i < nInner; ++i) {
                 for (int j = 1; j < mInner; ++j) {
                     counts[i][j] = (wall[i][j] ? INF : 0);
                 }
             }
+        }
+
+        private int walk(int x, int y, int direction, int result) {
+            if (useCorridors) {
+                buildCorridors();
+            }
+
+            for (; x != endX || y != endY; ++result) {
+                int corridor = (useCorridors ? corridorIds[x][y] : NO_CORRIDOR);
+
+                if (corridor < 0) {
+                    counts[x][y]++;
+                } else {
+                    int pass = passCorridor(corridor, x, y, direction);
+
+                    if (pass == NO_PASS) {
+                        materializeCorridor(corridor);
+                        counts[x][y]++;
+                    } else {
+                        int first = corridorStarts[corridor];
+                        int last = first + corridorSizes[corridor] - 1;
+
+                        int landing = (pass == FORWARD_PASS ? last : first);
+                        x = corridorCellsX[landing];
+                        y = corridorCellsY[landing];
+
+                        direction = (pass == FORWARD_PASS ? forwardExitDirections[corridor] : backwardExitDirections[corridor]);
+                        result += corridorSizes[corridor] - 1;
+                    }
+                }
+
+                direction = nextDirection(x, y, direction);
+
+                x += steps[direction][0];
+                y += steps[direction][1];
+            }
+
+            if (useCorridors) {
+                materializeCorridors();
+            }
+
+            if (trackVisited) {
+                fillVisitedMasks();
+            }
+
+            return result;
+        }
+
+        private int nextDirection(int x, int y, int direction) {
+            int smallestDir = -1;
+            int smallestDirCount = INF;
+
+            int curDirCount = INF;
+
+            for (int dir = 0; dir < steps.length; ++dir) {
+                int[] step = steps[dir];
+
+                int xx = x + step[0], yy = y + step[1];
+
+                int dirCount = counts[xx][yy];
+                if (dir == direction) curDirCount = dirCount;
+
+                if (smallestDirCount > dirCount) {
+                    smallestDir = dir;
+                    smallestDirCount = dirCount;
+                }
+            }
+
+            if (curDirCount == smallestDirCount) {
+                smallestDir = direction;
+            }
+
+            return smallestDir;
+        }
+
+        /**
+         * State of the walk at the moment bug first stands on the cell of the region or next to it
+         * (count of that cell is not increased yet). Until that moment bug never reads region cells,
+         * so the walk is the same for any content of the region.
+         */
+        static class Checkpoint {
+
+            final int regionX, regionY;
+            final int sizeX, sizeY;
+
+            int x, y, direction;
+            int result;
+            boolean finished;
+
+            final int[][] counts;
+
+            Checkpoint(int n, int m, int regionX, int regionY, int sizeX, int sizeY) {
+                this.regionX = regionX;
+                this.regionY = regionY;
+                this.sizeX = sizeX;
+                this.sizeY = sizeY;
+
+                this.counts = new int[n][m];
+            }
+        }
+
+        private boolean isContactCell(Checkpoint checkpoint, int x, int y) {
+            int dx = (x < checkpoint.regionX ? checkpoint.regionX - x : max(0, x - (checkpoint.regionX + checkpoint.sizeX - 1)));
+            int dy = (y < checkpoint.regionY ? checkpoint.regionY - y : max(0, y - (checkpoint.regionY + checkpoint.sizeY - 1)));
+
+            return dx + dy <= 1;
+        }
+
+        /**
+         * Walks cell by cell until the first contact with the region.
+         * Returns null if there is no path for the current wall.
+         */
+        public Checkpoint createCheckpoint(boolean[][] wall, int regionX, int regionY, int sizeX, int sizeY) {
+            this.wall = wall;
+
+            boolean pathExists = (useBitboard ? checkPathByMasks() : checkPath());
+            if (!pathExists) {
+                return null;
+            }
+
+            resetCounts();
+
+            Checkpoint checkpoint = new Checkpoint(n, m, regionX, regionY, sizeX, sizeY);
+
+            int x = startX, y = startY, direction = -1, result = 0;
+            for (; x != endX || y != endY; ++result) {
+                if (isContactCell(checkpoint, x, y)) break;
 
-            for (int x = startX, y = startY, direction = -1; x != endX || y != endY; ++result) {
                 counts[x][y]++;
 
-                int smallestDir = -1;
-                int smallestDirCount = INF;
+                direction = nextDirection(x, y, direction);
 
-                int curDirCount = INF;
+                x += steps[direction][0];
+                y += steps[direction][1];
+            }
 
-                for (int dir = 0; dir < steps.length; ++dir) {
-                    int[] step = steps[dir];
+            checkpoint.x = x;
+            checkpoint.y = y;
+            checkpoint.direction = direction;
+            checkpoint.result = result;
+            checkpoint.finished = (x == endX && y == endY);
 
-                    int xx = x + step[0], yy = y + step[1];
+            for (int i = 0; i < n; ++i) {
+                System.arraycopy(counts[i], 0, checkpoint.counts[i], 0, m);
+            }
 
-                    int dirCount = counts[xx][yy];
-                    if (dir == direction) curDirCount = dirCount;
+            return checkpoint;
+        }
 
-                    if (smallestDirCount > dirCount) {
-                        smallestDir = dir;
-                        smallestDirCount = dirCount;
-                    }
+        /**
+         * Continues the walk from the checkpoint for the wall,
+         * which differs from the checkpoint one only inside the region.
+         */
+        public int resume(Checkpoint checkpoint, boolean[][] wall, int[] wallMasks) {
+            this.wall = wall;
+
+            boolean pathExists = (useBitboard ? checkPathByMasks(wallMasks) : checkPath());
+            if (!pathExists) {
+                return -1;
+            }
+
+            for (int i = 0; i < n; ++i) {
+                System.arraycopy(checkpoint.counts[i], 0, counts[i], 0, m);
+            }
+
+            for (int i = checkpoint.regionX, iEnd = i + checkpoint.sizeX; i < iEnd; ++i) {
+                for (int j = checkpoint.regionY, jEnd = j + checkpoint.sizeY; j < jEnd; ++j) {
+                    counts[i][j] = (wall[i][j] ? INF : 0);
                 }
+            }
 
-                if (curDirCount == smallestDirCount) {
-                    smallestDir = direction;
+            if (checkpoint.finished) {
+                if (trackVisited) {
+                    fillVisitedMasks();
                 }
 
-                x += steps[smallestDir][0];
-                y += steps[smallestDir][1];
+                return checkpoint.result;
+            }
+
+            return walk(checkpoint.x, checkpoint.y, checkpoint.direction, checkpoint.result);
+        }
+
+        /**
+         * Visited masks are available only if each row fits into one int.
+         */
+        public void setTrackVisited(boolean trackVisited) {
+            this.trackVisited = trackVisited && m < Integer.SIZE;
+        }
+
+        private void fillVisitedMasks() {
+            for (int i = 1; i < nInner; ++i) {
+                int rowMask = 0;
+                for (int j = 1; j < mInner; ++j) {
+                    int count = counts[i][j];
+                    if (count != 0 && count != INF) rowMask |= 1 << j;
+                }
 
-                direction = smallestDir;
+                visitedMasks[i] = rowMask;
             }
 
-            return result;
+            visitedMasks[endX] |= 1 << endY;
+        }
+
+        /**
+         * Visited cells of the last walk (bit j of visitedMasks[i] is set if bug stood on cell (i, j)).
+         */
+        public int[] getVisitedMasks() {
+            return visitedMasks;
+        }
+
+        /**
+         * Visited cells of the last walk together with their neighbours -
+         * all cells which counts were read by the bug.
+         */
+        public void fillFootprint(int[] footprint) {
+            for (int i = 0; i < n; ++i) {
+                int visited = visitedMasks[i];
+                int rowMask = visited | (visited << 1) | (visited >>> 1);
+
+                if (i > 0) rowMask |= visitedMasks[i - 1];
+                if (i + 1 < n) rowMask |= visitedMasks[i + 1];
+
+                footprint[i] = rowMask;
+            }
         }
     }
 
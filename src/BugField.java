@@ -2,34 +2,132 @@ import java.io.*;
 import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Deque;
-import java.util.Queue;
+import java.util.Random;
 
 public class BugField implements Comparable<BugField> {
 
     static final int SITE_N = 21, SITE_M = 31;
     static final int SITE_WALL = (char) (254), SITE_EMPTY = (char) 0;
 
-    static final BugAcmp.BugStepsCalculator stepsCalculator;
+    static final boolean BITBOARD_CHECK_PATH = true;
+    static final boolean CORRIDOR_STEPS = true;
+    static final boolean TRACK_FOOTPRINT = true;
 
-    static final String TMP_DIRECTORY_NAME = "tmp", POPULATION_DIRECTORY_NAME = "population";
+    static final ThreadLocal<BugAcmp.BugStepsCalculator> stepsCalculators;
 
-    static Queue<BugField> freeFields;
+    static final String TMP_DIRECTORY_NAME = "tmp", POPULATION_ARCHIVE_NAME = "population.archive";
+    static final String SCORE_INDEX_NAME = TMP_DIRECTORY_NAME + "/scores.index";
+
+    static final int SCORE_INDEX_SIZE = Integer.getInteger("index.size", 16);
+
+    /**
+     * Null until persistence is started.
+     */
+    static volatile BugFieldScoreIndex scoreIndex;
+
+    static final int POOL_LOCAL_CAPACITY = Integer.getInteger("pool.local", 256);
+    static final int POOL_SHARED_CAPACITY = Integer.getInteger("pool.shared", 4096);
+
+    static final BugFieldPool pool;
+
+    /**
+     * Zero capacity disables the cache.
+     */
+    static final int STEPS_CACHE_CAPACITY = Integer.getInteger("cache.capacity", 1 << 16);
+
+    static final BugStepsCache stepsCache;
+
+    static final long WRITE_INTERVAL = Long.getLong("persistence.interval", 1000);
+    static final BugFieldWriter.Durability WRITE_DURABILITY =
+            BugFieldWriter.Durability.valueOf(System.getProperty("persistence.durability", "NONE"));
+
+    static final BugFieldWriter writer;
+
+    /**
+     * Closed by the one shutdown hook in the reverse order and before the writer,
+     * so their last writes are queued after the older ones, not executed concurrently with them.
+     */
+    private static final Deque<Closeable> shutdownResources = new ArrayDeque<>();
+
+    /**
+     * False keeps metrics out of the platform MBean server, they are counted anyway.
+     */
+    static final boolean METRICS_JMX = Boolean.parseBoolean(System.getProperty("metrics.jmx", "true"));
+
+    static final BugSearchMetrics metrics;
+
+    /**
+     * Fixed seed, so board hashes are the same in all runs.
+     */
+    static final long ZOBRIST_SEED = 20150421L;
+
+    static final long[][] zobristKeys;
 
     static {
-        stepsCalculator = new BugAcmp.BugStepsCalculator(SITE_N, SITE_M);
+        stepsCalculators = ThreadLocal.withInitial(BugField::createStepsCalculator);
 
-        new File(TMP_DIRECTORY_NAME).mkdir();
-        new File(POPULATION_DIRECTORY_NAME).mkdir();
+        metrics = new BugSearchMetrics();
+
+        pool = new BugFieldPool(POOL_LOCAL_CAPACITY, POOL_SHARED_CAPACITY);
+        stepsCache = (STEPS_CACHE_CAPACITY > 0 ? new BugStepsCache(STEPS_CACHE_CAPACITY, SITE_N) : null);
+
+        writer = new BugFieldWriter(TMP_DIRECTORY_NAME, WRITE_INTERVAL, WRITE_DURABILITY);
+
+        zobristKeys = new long[SITE_N][SITE_M];
+        Random zobristRandom = new Random(ZOBRIST_SEED);
+        for (int i = 0; i < SITE_N; ++i) {
+            for (int j = 0; j < SITE_M; ++j) {
+                zobristKeys[i][j] = zobristRandom.nextLong();
+            }
+        }
+    }
+
+    private static BugAcmp.BugStepsCalculator createStepsCalculator() {
+        BugAcmp.BugStepsCalculator stepsCalculator = new BugAcmp.BugStepsCalculator(SITE_N, SITE_M);
+        stepsCalculator.setUseBitboard(BITBOARD_CHECK_PATH);
+        stepsCalculator.setUseCorridors(CORRIDOR_STEPS);
+        stepsCalculator.setTrackVisited(TRACK_FOOTPRINT);
+
+        return stepsCalculator;
+    }
 
-        freeFields = new ArrayDeque<>();
+    /**
+     * Each thread owns its calculator, so fields can be evaluated in parallel.
+     */
+    static BugAcmp.BugStepsCalculator getStepsCalculator() {
+        return stepsCalculators.get();
     }
 
     int n, m;
-    boolean[][] wall;
+
+    /**
+     * Canonical form of the field: bit j of masks[i] is set if cell (i, j) is a wall.
+     * Array can be shared between copies, so it's never changed in place while masksShared.
+     */
     int[] masks;
+    boolean masksShared;
+
+    /**
+     * Zobrist hash of masks: xor of keys of all wall cells.
+     */
+    long hash;
+
+    /**
+     * Unpacked masks, filled on demand by getWall().
+     */
+    private boolean[][] wall;
+    private volatile boolean wallValid;
 
     int steps;
-    String printFileName;
+    /**
+     * Field has a live record in the population archive.
+     */
+    boolean archived;
+
+    int[] footprint;
+    boolean hasFootprint;
+
+    boolean free;
 
     static BugField create() {
         int n = SITE_N, m = SITE_M;
@@ -54,34 +152,99 @@ public class BugField implements Comparable<BugField> {
         return field;
     }
 
+    static BugField create(int[] masks) {
+        BugField field = getInstance(masks);
+        field.recalculateSteps();
+
+        return field;
+    }
+
+    /**
+     * @param hash hash of masks, which is already known (e.g. updated incrementally)
+     */
+    static BugField create(int[] masks, long hash) {
+        BugField field = getInstance();
+        field.setMasks(masks, hash);
+        field.recalculateSteps();
+
+        return field;
+    }
+
+    /**
+     * Creates field which differs from the checkpoint one only inside the checkpoint region.
+     */
+    static BugField create(BugField board, BugAcmp.BugStepsCalculator.Checkpoint checkpoint) {
+        BugField field = getInstance(board);
+        field.recalculateSteps(checkpoint);
+
+        return field;
+    }
+
+    static BugAcmp.BugStepsCalculator.Checkpoint createCheckpoint(BugField field, int startX, int startY, int sizeX, int sizeY) {
+        return getStepsCalculator().createCheckpoint(field.getWall(), startX, startY, sizeX, sizeY);
+    }
+
+    /**
+     * Copy shares masks with the other field until one of them is changed,
+     * so other field must not be changed concurrently with this call.
+     */
     static BugField create(BugField other) {
-        BugField field = getInstance(other.wall);
+        BugField field = getInstance();
+        field.shareMasks(other);
         field.steps = other.steps;
+        field.copyFootprint(other);
 
         return field;
     }
 
     public static BugField getInstance(boolean[][] wall) {
-        if (freeFields.isEmpty()) {
-            return new BugField(wall);
-        } else {
-            BugField freeField = freeFields.poll();
-            freeField.constructor();
+        BugField freeField = getInstance();
 
-            if (freeField.wall == null) {
-                freeField.wall = wall;
-            } else {
-                for (int i = 0; i < freeField.n; ++i) {
-                    System.arraycopy(wall[i], 0, freeField.wall[i], 0, freeField.m);
-                }
-            }
+        // field never shares wall with the caller, so it can be safely deleted later
+        for (int i = 0; i < freeField.n; ++i) {
+            System.arraycopy(wall[i], 0, freeField.wall[i], 0, freeField.m);
+        }
+
+        freeField.wallValid = true;
+        freeField.initMasks();
+
+        return freeField;
+    }
+
+    public static BugField getInstance(int[] masks) {
+        BugField freeField = getInstance();
+        freeField.setMasks(masks);
+
+        return freeField;
+    }
+
+    /**
+     * Copies only the board of the other field (with its hash) into own storage.
+     */
+    public static BugField getInstance(BugField other) {
+        BugField freeField = getInstance();
+        freeField.setMasks(other.masks, other.hash);
+
+        return freeField;
+    }
 
-            return freeField;
+    private static BugField getInstance() {
+        BugField freeField = pool.acquire();
+
+        if (freeField == null) {
+            freeField = new BugField(new boolean[SITE_N][SITE_M]);
+        } else {
+            freeField.constructor();
         }
+
+        return freeField;
     }
 
+    /**
+     * Returns field (with its wall storage) to the pool, so field must not be used after this call.
+     */
     public static void delete(BugField field) {
-        freeFields.add(field);
+        pool.release(field);
     }
 
     BugField(boolean[][] wall) {
@@ -94,13 +257,18 @@ public class BugField implements Comparable<BugField> {
         this.m = SITE_M;
 
         this.steps = -1;
-        this.printFileName = null;
+        this.archived = false;
+
+        this.hasFootprint = false;
+
+        this.wallValid = false;
     }
 
+    /**
+     * Packs wall into masks.
+     */
     public void initMasks() {
-        if (masks == null) {
-            this.masks = new int[n];
-        }
+        prepareMasks();
 
         for (int i = 0; i < n; ++i) {
             masks[i] = 0;
@@ -108,17 +276,99 @@ public class BugField implements Comparable<BugField> {
                 masks[i] |= (wall[i][j] ? 1 : 0) << j;
             }
         }
+
+        this.hash = getHash(masks);
     }
 
     public void setMasks(int[] masks) {
-        if (this.masks == null) {
+        setMasks(masks, getHash(masks));
+    }
+
+    private void setMasks(int[] masks, long hash) {
+        prepareMasks();
+        System.arraycopy(masks, 0, this.masks, 0, n);
+
+        this.hash = hash;
+        this.wallValid = false;
+    }
+
+    /**
+     * Makes masks array owned by this field, its content is going to be overwritten.
+     */
+    private void prepareMasks() {
+        if (masks == null || masksShared) {
+            this.masks = new int[n];
+            this.masksShared = false;
+        }
+    }
+
+    private void shareMasks(BugField other) {
+        other.masksShared = true;
+
+        this.masks = other.masks;
+        this.masksShared = true;
+        this.hash = other.hash;
+
+        this.wallValid = false;
+    }
+
+    boolean getCell(int x, int y) {
+        return ((masks[x] >> y) & 1) != 0;
+    }
+
+    /**
+     * Updates masks and hash in O(1), wall is filled again by the next getWall.
+     * Steps are not recalculated, caller should do it after all changes.
+     */
+    void setCell(int x, int y, boolean value) {
+        if (getCell(x, y) == value) return;
+
+        if (masksShared) {
             this.masks = masks.clone();
-        } else {
-            System.arraycopy(masks, 0, this.masks, 0, n);
+            this.masksShared = false;
+        }
+
+        masks[x] ^= (1 << y);
+        hash ^= zobristKeys[x][y];
+
+        if (wallValid) {
+            invalidateWall();
+        }
+    }
+
+    /**
+     * Under the lock of fillWall, so the fill in progress can't mark the wall of the old masks as valid.
+     */
+    private synchronized void invalidateWall() {
+        this.wallValid = false;
+    }
+
+    /**
+     * Returned array is a view of masks and must not be changed, use setCell instead.
+     */
+    boolean[][] getWall() {
+        if (!wallValid) {
+            fillWall();
         }
+
+        return wall;
+    }
+
+    private synchronized void fillWall() {
+        if (wallValid) return;
+
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < m; ++j) {
+                wall[i][j] = getCell(i, j);
+            }
+        }
+
+        this.wallValid = true;
     }
 
     public boolean equalsByMasks(BugField other) {
+        if (masks == other.masks) return true;
+
         for (int i = 0; i < n; ++i) {
             if (masks[i] != other.masks[i]) return false;
         }
@@ -126,6 +376,47 @@ public class BugField implements Comparable<BugField> {
         return true;
     }
 
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof BugField)) return false;
+
+        return equalsByMasks((BugField) other);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hash);
+    }
+
+    /**
+     * 64-bit hash of the board, the same in all runs.
+     */
+    long getHash() {
+        return hash;
+    }
+
+    static long getHash(int[] masks) {
+        long hash = 0;
+        for (int i = 0; i < masks.length; ++i) {
+            hash ^= getHash(i, masks[i]);
+        }
+
+        return hash;
+    }
+
+    /**
+     * Hash of the walls of one row, so the hash of the board can be updated by changed cells only.
+     */
+    static long getHash(int row, int mask) {
+        long hash = 0;
+        for (; mask != 0; mask &= mask - 1) {
+            hash ^= zobristKeys[row][Integer.numberOfTrailingZeros(mask)];
+        }
+
+        return hash;
+    }
+
     @Override
     public int compareTo(BugField other) {
         return -Integer.compare(steps, other.steps);
@@ -137,7 +428,7 @@ public class BugField implements Comparable<BugField> {
 
         stringBuilder.append(n).append(' ').append(m).append('\n');
 
-        for (boolean[] row : wall) {
+        for (boolean[] row : getWall()) {
             for (boolean cell : row) {
                 stringBuilder.append(cell ? BugAcmp.WALL : BugAcmp.EMPTY);
             }
@@ -151,46 +442,77 @@ public class BugField implements Comparable<BugField> {
     }
 
     public String getFileName() {
-        return steps + " " + hashCode();
+        return getFileName(steps, hash);
     }
 
-    public void printToTmp() throws IOException {
-        if (printFileName != null) return;
-        printToDirectory(TMP_DIRECTORY_NAME);
+    static String getFileName(int steps, long hash) {
+        return steps + " " + Long.toHexString(hash);
     }
 
-    public void printToPopulation() throws IOException {
-        if (printFileName != null) return;
-        printToDirectory(POPULATION_DIRECTORY_NAME);
+    /**
+     * Side effects of the search are started explicitly by main, so benchmarks, tests and workers only evaluate fields:
+     * tmp directory with the score index, the writer thread and the shutdown hook, which closes them.
+     */
+    static synchronized void startPersistence() {
+        if (scoreIndex != null) return;
+
+        new File(TMP_DIRECTORY_NAME).mkdir();
+        scoreIndex = BugFieldScoreIndex.open(SCORE_INDEX_NAME, SCORE_INDEX_SIZE);
+
+        writer.start(scoreIndex);
+        Runtime.getRuntime().addShutdownHook(new Thread(BugField::shutdown));
     }
 
-    void printToDirectory(String directoryName) throws IOException {
-        printToZip(directoryName + "/" + getFileName());
+    static void startMetrics() {
+        if (METRICS_JMX) {
+            metrics.register();
+        }
     }
 
-    private void printToZip(String name) throws IOException {
-        printFileName = name + ".zip";
-        OutputStream out = new FileOutputStream(printFileName);
+    static void closeOnShutdown(Closeable resource) {
+        synchronized (shutdownResources) {
+            shutdownResources.push(resource);
+        }
+    }
 
-        try {
-            for (int j = 0; j < m; ++j) {
-                for (int i = 0; i < n; ++i) {
-                    out.write(wall[i][j] ? SITE_WALL : SITE_EMPTY);
+    private static void shutdown() {
+        synchronized (shutdownResources) {
+            while (!shutdownResources.isEmpty()) {
+                try {
+                    shutdownResources.pop().close();
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
-
-            out.close();
-        } catch (IOException e) {
-            printFileName = null;
-            throw e;
         }
+
+        writer.close();
+    }
+
+    /**
+     * Field is written to tmp in background, if it's still the best one at the next write.
+     */
+    public void printToTmp() {
+        writer.offerBest(this);
     }
 
-    public void removeZip() {
-        if (printFileName== null) return;
+    static void printToZip(String fileName, int[] masks, boolean sync) throws IOException {
+        int n = SITE_N, m = SITE_M;
 
-        File file = new File(printFileName);
-        file.delete();
+        byte[] bytes = new byte[n * m];
+        for (int j = 0, index = 0; j < m; ++j) {
+            for (int i = 0; i < n; ++i, ++index) {
+                bytes[index] = (byte) (((masks[i] >> j) & 1) != 0 ? SITE_WALL : SITE_EMPTY);
+            }
+        }
+
+        try (FileOutputStream out = new FileOutputStream(fileName)) {
+            out.write(bytes);
+
+            if (sync) {
+                out.getFD().sync();
+            }
+        }
     }
 
     public static BugField readFromZip(String name) throws IOException {
@@ -211,7 +533,22 @@ public class BugField implements Comparable<BugField> {
 
     public void recalculateSteps() {
         makeSoftConsistent();
-        this.steps = stepsCalculator.getResult(wall);
+
+        if (stepsCache != null && stepsCache.load(this, hash)) return;
+
+        BugSearchEvents.SlowEvaluationEvent event = new BugSearchEvents.SlowEvaluationEvent();
+        event.begin();
+
+        BugAcmp.BugStepsCalculator stepsCalculator = getStepsCalculator();
+        this.steps = stepsCalculator.getResult(getWall(), masks);
+        metrics.evaluated(steps, steps);
+        commitSlowEvaluation(event, steps);
+
+        updateFootprint(stepsCalculator);
+
+        if (stepsCache != null) {
+            stepsCache.store(this, hash);
+        }
 
 //        if (!isConsistent()) {
 //            System.out.println("Gotcha!");
@@ -220,20 +557,112 @@ public class BugField implements Comparable<BugField> {
 //        }
     }
 
+    public void recalculateSteps(BugAcmp.BugStepsCalculator.Checkpoint checkpoint) {
+        if (checkpoint == null) {
+            recalculateSteps();
+            return;
+        }
+
+        makeSoftConsistent();
+
+        if (stepsCache != null && stepsCache.load(this, hash)) return;
+
+        BugSearchEvents.SlowEvaluationEvent event = new BugSearchEvents.SlowEvaluationEvent();
+        event.begin();
+
+        BugAcmp.BugStepsCalculator stepsCalculator = getStepsCalculator();
+        this.steps = stepsCalculator.resume(checkpoint, getWall(), masks);
+
+        int simulatedSteps = (checkpoint.finished ? 0 : steps - checkpoint.result);
+        metrics.evaluated(steps, simulatedSteps);
+        commitSlowEvaluation(event, simulatedSteps);
+
+        updateFootprint(stepsCalculator);
+
+        if (stepsCache != null) {
+            stepsCache.store(this, hash);
+        }
+    }
+
+    private void updateFootprint(BugAcmp.BugStepsCalculator stepsCalculator) {
+        this.hasFootprint = (steps >= 0 && TRACK_FOOTPRINT);
+        if (hasFootprint) {
+            if (footprint == null) {
+                this.footprint = new int[n];
+            }
+
+            stepsCalculator.fillFootprint(footprint);
+        }
+    }
+
+    /**
+     * Field should differ from the parent only inside the window.
+     * Bug of the parent field never read cells outside its footprint,
+     * so if the window doesn't intersect it, the walk (and steps) can't change.
+     */
+    public void recalculateSteps(BugField parent, int startX, int startY, int sizeX, int sizeY) {
+        if (!parent.hasFootprint || parent.intersectsFootprint(startX, startY, sizeX, sizeY)) {
+            recalculateSteps();
+            return;
+        }
+
+        makeSoftConsistent();
+
+        this.steps = parent.steps;
+        copyFootprint(parent);
+
+        metrics.footprintSkipped();
+    }
+
+    /**
+     * Records the evaluation by the JFR event, if the walk is long enough.
+     */
+    private void commitSlowEvaluation(BugSearchEvents.SlowEvaluationEvent event, int simulatedSteps) {
+        if (steps <= BugSearchEvents.SLOW_EVALUATION_STEPS || !event.shouldCommit()) return;
+
+        event.steps = steps;
+        event.simulatedSteps = simulatedSteps;
+        event.hash = hash;
+        event.commit();
+    }
+
+    boolean intersectsFootprint(int startX, int startY, int sizeX, int sizeY) {
+        int windowMask = ((1 << sizeY) - 1) << startY;
+
+        for (int i = startX; i < startX + sizeX; ++i) {
+            if ((footprint[i] & windowMask) != 0) return true;
+        }
+
+        return false;
+    }
+
+    private void copyFootprint(BugField other) {
+        if (this == other) return;
+
+        this.hasFootprint = other.hasFootprint;
+        if (!hasFootprint) return;
+
+        if (footprint == null) {
+            this.footprint = other.footprint.clone();
+        } else {
+            System.arraycopy(other.footprint, 0, footprint, 0, n);
+        }
+    }
+
     public void makeSoftConsistent() {
-        wall[1][1] = false;
-        wall[n - 2][m - 2] = false;
+        setCell(1, 1, false);
+        setCell(n - 2, m - 2, false);
     }
 
     public boolean isConsistent() {
+        int rowLimit = (1 << m) - 1, borderMask = 1 | (1 << (m - 1));
+
         for (int i = 0; i < n; ++i) {
-            if (!wall[i][0] || !wall[i][m - 1]) return false;
+            if ((masks[i] & borderMask) != borderMask) return false;
         }
 
-        for (int j = 0; j < m; ++j) {
-            if (!wall[0][j] || !wall[n - 1][j]) return false;
-        }
+        if (masks[0] != rowLimit || masks[n - 1] != rowLimit) return false;
 
-        return !wall[1][1] && !wall[n - 2][m - 2];
+        return !getCell(1, 1) && !getCell(n - 2, m - 2);
     }
 }
@@ -0,0 +1,278 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parallel tempering over single cell flips, as simulated_annealing in cpp/bug.cpp, but with replicas:
+ * each replica keeps its temperature and flips cells by the Metropolis criterion, replicas run in parallel,
+ * and after each round neighbour replicas swap their fields, so good fields found by hot replicas reach cold ones.
+ * Flip outside the walk footprint keeps steps without the walk, and a new wall, which may separate
+ * its free neighbours, is checked by the bitboard path check before the evaluation.
+ */
+public class BugFieldAnnealing {
+
+    /**
+     * Ring of 8 neighbours in the walking order, so consecutive cells are adjacent; even ones are orthogonal.
+     */
+    private static final int[] RING_X = { -1, -1, 0, 1, 1, 1, 0, -1 };
+    private static final int[] RING_Y = { 0, 1, 1, 1, 0, -1, -1, -1 };
+
+    /**
+     * For each set of free ring cells: free orthogonal neighbours are connected through the ring,
+     * so a wall in the center can't break any path.
+     */
+    private static final boolean[] LOCALLY_CONNECTED = new boolean[1 << RING_X.length];
+
+    static {
+        for (int ring = 0; ring < LOCALLY_CONNECTED.length; ++ring) {
+            LOCALLY_CONNECTED[ring] = (countConnectedGroups(ring) <= 1);
+        }
+    }
+
+    /**
+     * @return count of runs of free ring cells, which contain orthogonal neighbours
+     */
+    private static int countConnectedGroups(int ring) {
+        int size = RING_X.length;
+        if (ring == (1 << size) - 1) return 1;
+
+        int start = 0;
+        while (((ring >> start) & 1) != 0) {
+            ++start;
+        }
+
+        int groups = 0;
+        boolean orthogonal = false;
+        for (int k = 1; k <= size; ++k) {
+            int index = (start + k) % size;
+
+            if (((ring >> index) & 1) != 0) {
+                orthogonal |= (index % 2 == 0);
+            } else {
+                if (orthogonal) {
+                    ++groups;
+                }
+
+                orthogonal = false;
+            }
+        }
+
+        return groups;
+    }
+
+    private class Replica {
+        final double temperature;
+        final int[] scratchMasks;
+
+        /**
+         * Own random stream of each round, so replicas don't share state between threads.
+         */
+        Random random;
+        BugField field, roundBestField;
+
+        long accepted, rejected, disconnected;
+
+        Replica(double temperature) {
+            this.temperature = temperature;
+            this.scratchMasks = new int[BugField.SITE_N];
+        }
+
+        void run(int flipsCount) {
+            for (int i = 0; i < flipsCount; ++i) {
+                flip();
+            }
+        }
+
+        private void flip() {
+            int n = field.n, m = field.m;
+
+            // all inner cells except the start and the end
+            int cell = random.nextInt((n - 2) * (m - 2) - 2) + 1;
+            int x = cell / (m - 2) + 1, y = cell % (m - 2) + 1;
+
+            boolean wall = !field.getCell(x, y);
+            if (wall && !isLocallyConnected(field, x, y)) {
+                System.arraycopy(field.masks, 0, scratchMasks, 0, n);
+                scratchMasks[x] |= (1 << y);
+
+                if (!BugField.getStepsCalculator().checkPathByMasks(scratchMasks)) {
+                    ++disconnected;
+                    return;
+                }
+            }
+
+            BugField candidate = BugField.create(field);
+            candidate.setCell(x, y, wall);
+            candidate.recalculateSteps(field, x, y, 1, 1);
+
+            int delta = candidate.steps - field.steps;
+            boolean accept = (candidate.steps > 0
+                    && (delta >= 0 || random.nextDouble() < Math.exp(delta / temperature))
+            );
+
+            if (!accept) {
+                BugField.delete(candidate);
+                ++rejected;
+                return;
+            }
+
+            BugField.delete(field);
+            field = candidate;
+            ++accepted;
+
+            if (field.steps > roundBestField.steps) {
+                BugField.delete(roundBestField);
+                roundBestField = BugField.create(field);
+            }
+        }
+    }
+
+    private static boolean isLocallyConnected(BugField field, int x, int y) {
+        int ring = 0;
+        for (int k = 0; k < RING_X.length; ++k) {
+            if (!field.getCell(x + RING_X[k], y + RING_Y[k])) {
+                ring |= (1 << k);
+            }
+        }
+
+        return LOCALLY_CONNECTED[ring];
+    }
+
+    private final Replica[] replicas;
+    private final int flipsPerRound;
+
+    private final ForkJoinPool pool;
+    private final Random random;
+
+    /**
+     * @param random seeds of replicas and exchanges, so the result doesn't depend on threads count
+     */
+    BugFieldAnnealing(int replicasCount, double minTemperature, double maxTemperature, int flipsPerRound,
+                      ForkJoinPool pool, Random random) {
+        this.flipsPerRound = flipsPerRound;
+        this.pool = pool;
+        this.random = random;
+
+        // geometric temperatures, replica 0 is the coldest one
+        this.replicas = new Replica[replicasCount];
+        for (int k = 0; k < replicasCount; ++k) {
+            double part = (replicasCount > 1 ? (double) k / (replicasCount - 1) : 0);
+            replicas[k] = new Replica(minTemperature * Math.pow(maxTemperature / minTemperature, part));
+        }
+    }
+
+    /**
+     * All replicas start from the start field.
+     *
+     * @return the best distinct fields of all rounds, at most count ones
+     */
+    BugField[] process(BugField startField, int roundsCount, int count) {
+        BugFieldUtils.BugFieldBestSet bestFields = new BugFieldUtils.BugFieldBestSet(count);
+
+        for (Replica replica : replicas) {
+            replica.field = BugField.create(startField);
+            replica.roundBestField = BugField.create(startField);
+            replica.accepted = replica.rejected = replica.disconnected = 0;
+        }
+
+        long exchanges = 0, swaps = 0;
+
+        for (int round = 0; round < roundsCount; ++round) {
+            for (Replica replica : replicas) {
+                replica.random = new Random(random.nextLong());
+            }
+
+            if (pool == null) {
+                for (Replica replica : replicas) {
+                    replica.run(flipsPerRound);
+                }
+            } else {
+                pool.invoke(new ReplicasTask(0, replicas.length));
+            }
+
+            for (int k = 0; k < replicas.length; ++k) {
+                Replica replica = replicas[k];
+
+                if (bestFields.canAdd(replica.roundBestField.steps)) {
+                    BugField removed = bestFields.add(replica.roundBestField, (long) round * replicas.length + k);
+                    if (removed != null) {
+                        BugField.delete(removed);
+                    }
+                } else {
+                    BugField.delete(replica.roundBestField);
+                }
+            }
+
+            // even and odd pairs by turns, as in the usual replica exchange
+            for (int k = round & 1; k + 1 < replicas.length; k += 2) {
+                Replica cold = replicas[k], hot = replicas[k + 1];
+
+                double exponent = (1 / cold.temperature - 1 / hot.temperature) * (hot.field.steps - cold.field.steps);
+
+                ++exchanges;
+                if (exponent >= 0 || random.nextDouble() < Math.exp(exponent)) {
+                    BugField field = cold.field;
+                    cold.field = hot.field;
+                    hot.field = field;
+
+                    ++swaps;
+                }
+            }
+
+            for (Replica replica : replicas) {
+                replica.roundBestField = BugField.create(replica.field);
+            }
+
+            if (round % 10 == 0 || round == roundsCount - 1) {
+                StringBuilder steps = new StringBuilder();
+                for (Replica replica : replicas) {
+                    steps.append(' ').append(replica.field.steps);
+                }
+
+                System.out.println(String.format("Annealing round %d:%s", round, steps));
+            }
+        }
+
+        long accepted = 0, rejected = 0, disconnected = 0;
+        for (Replica replica : replicas) {
+            accepted += replica.accepted;
+            rejected += replica.rejected;
+            disconnected += replica.disconnected;
+
+            BugField.delete(replica.field);
+            BugField.delete(replica.roundBestField);
+            replica.field = replica.roundBestField = null;
+        }
+
+        BugField[] fields = bestFields.toArray();
+
+        System.out.println(String.format("Annealing: best %d, flips accepted %d, rejected %d, disconnected %d, swaps %d of %d",
+                (fields.length > 0 ? fields[0].steps : -1), accepted, rejected, disconnected, swaps, exchanges));
+
+        return fields;
+    }
+
+    private class ReplicasTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final int from, to;
+
+        ReplicasTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                for (int k = from; k < to; ++k) {
+                    replicas[k].run(flipsPerRound);
+                }
+            } else {
+                int middle = (from + to) / 2;
+                invokeAll(new ReplicasTask(from, middle), new ReplicasTask(middle, to));
+            }
+        }
+    }
+}
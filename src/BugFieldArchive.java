@@ -0,0 +1,481 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single append-only file with fields, instead of one file per field.
+ * Each record is {type, generation, steps, hash, masks}:
+ * FIELD record is live until REMOVE record with the same hash is appended,
+ * SNAPSHOT records (final population of the generation) are never removed.
+ *
+ * Changes are coalesced in the pending window (field added and removed within it never touches the file)
+ * and the window is written by the background writer once per its interval, by one sequential write.
+ */
+public class BugFieldArchive implements Closeable {
+
+    static final int FIELD = 1, REMOVE = 2, SNAPSHOT = 3;
+
+    static final int MAGIC = 0x42554741; // "BUGA"
+    static final int HEADER_SIZE = 3 * Integer.BYTES;
+
+    /**
+     * Compaction starts, when there are more dead records than this and than live ones.
+     */
+    static final int COMPACT_MIN_DEAD = 1 << 14;
+
+    /**
+     * Copy of the field data, so it can be written after the field is recycled.
+     */
+    static class Record {
+        final int type, generation, steps;
+        final long hash;
+        final int[] masks;
+
+        Record(int type, int generation, BugField field) {
+            this.type = type;
+            this.generation = generation;
+            this.steps = field.steps;
+            this.hash = field.hash;
+            this.masks = (type == REMOVE ? null : field.masks.clone());
+        }
+
+        Record(int type, long hash) {
+            this.type = type;
+            this.generation = 0;
+            this.steps = 0;
+            this.hash = hash;
+            this.masks = null;
+        }
+    }
+
+    private final Path path;
+    private final int rows, recordSize;
+
+    private final BugFieldWriter writer;
+
+    /**
+     * Guards the file state below, which is changed by the writer thread.
+     */
+    private final Object fileLock = new Object();
+
+    private FileChannel channel;
+    private ByteBuffer buffer;
+
+    private long recordsCount;
+
+    /**
+     * Hash of live field in the file -> its record index.
+     */
+    private final Map<Long, Long> liveRecords;
+    private long deadCount, snapshotsCount;
+
+    /**
+     * Boards, which are live in the file or in the pending window -> count of added field objects with the board,
+     * so the board is removed only with its last holder (boards read from the file have no holders yet).
+     */
+    private final Map<Long, Integer> liveBoards;
+
+    /**
+     * At most one FIELD or REMOVE record per board.
+     */
+    private final Map<Long, Record> pendingRecords;
+    private final List<Record> pendingSnapshots;
+
+    private long lastFlushTime;
+
+    private BugFieldArchive(Path path, int rows, BugFieldWriter writer) {
+        this.path = path;
+        this.rows = rows;
+        this.recordSize = 3 * Integer.BYTES + Long.BYTES + rows * Integer.BYTES;
+
+        this.writer = writer;
+
+        this.buffer = ByteBuffer.allocate(64 * recordSize);
+        this.liveRecords = new HashMap<>();
+
+        this.liveBoards = new HashMap<>();
+        this.pendingRecords = new HashMap<>();
+        this.pendingSnapshots = new ArrayList<>();
+    }
+
+    static BugFieldArchive open(String name, int rows, BugFieldWriter writer) throws IOException {
+        BugFieldArchive archive = new BugFieldArchive(Paths.get(name), rows, writer);
+
+        synchronized (archive.fileLock) {
+            archive.openChannel();
+            archive.readIndex();
+
+            for (long hash : archive.liveRecords.keySet()) {
+                archive.liveBoards.put(hash, 0);
+            }
+        }
+
+        return archive;
+    }
+
+    private void openChannel() throws IOException {
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+
+        if (channel.size() < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(rows).putInt(recordSize).flip();
+
+            channel.truncate(0);
+            writeFully(header, 0);
+        }
+    }
+
+    /**
+     * Rebuilds index of live records, incomplete tail record (after crash) is dropped.
+     */
+    private void readIndex() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        header.flip();
+
+        if (header.getInt() != MAGIC || header.getInt() != rows || header.getInt() != recordSize) {
+            throw new IOException("Wrong archive format: " + path);
+        }
+
+        this.recordsCount = (channel.size() - HEADER_SIZE) / recordSize;
+        channel.truncate(getOffset(recordsCount));
+
+        liveRecords.clear();
+        this.deadCount = 0;
+        this.snapshotsCount = 0;
+
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        for (long index = 0; index < recordsCount; ++index) {
+            record.clear();
+            readFully(record, getOffset(index));
+            record.flip();
+
+            int type = record.getInt();
+            record.getInt(); // generation
+            record.getInt(); // steps
+            long hash = record.getLong();
+
+            indexRecord(type, hash, index);
+        }
+    }
+
+    private void indexRecord(int type, long hash, long index) {
+        if (type == FIELD) {
+            liveRecords.put(hash, index);
+        } else if (type == REMOVE) {
+            if (liveRecords.remove(hash) != null) {
+                ++deadCount;
+            }
+
+            // remove record is dead by itself
+            ++deadCount;
+        } else {
+            ++snapshotsCount;
+        }
+    }
+
+    private long getOffset(long index) {
+        return HEADER_SIZE + index * recordSize;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Unexpected end of archive: " + path);
+            position += read;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Adds field to the current population; the board is written, if no other field with it is there yet.
+     */
+    synchronized void add(BugField field, int generation) {
+        if (field.archived) return;
+        field.archived = true;
+
+        Integer holders = liveBoards.put(field.hash, (liveBoards.getOrDefault(field.hash, 0) + 1));
+        if (holders != null) return;
+
+        // pending remove of the same board is cancelled, so its record just stays live
+        if (pendingRecords.remove(field.hash) == null) {
+            pendingRecords.put(field.hash, new Record(FIELD, generation, field));
+        }
+    }
+
+    /**
+     * Removes field from the current population, if it was added by this field object;
+     * the board is removed with its last field, so removing one of the same boards doesn't kill the record of others.
+     * Fields, which were never added, don't touch the file.
+     */
+    synchronized void remove(BugField field) {
+        if (!field.archived) return;
+        field.archived = false;
+
+        Integer holders = liveBoards.get(field.hash);
+        if (holders == null) return;
+
+        if (holders > 1) {
+            liveBoards.put(field.hash, holders - 1);
+            return;
+        }
+
+        liveBoards.remove(field.hash);
+
+        // pending add is cancelled, so the field never touches the file
+        if (pendingRecords.remove(field.hash) == null) {
+            pendingRecords.put(field.hash, new Record(REMOVE, 0, field));
+        }
+    }
+
+    /**
+     * Removes the whole current population, e.g. the one left live by the stopped run,
+     * before the resumed population is added again.
+     */
+    void removeAll() {
+        drain();
+
+        synchronized (this) {
+            synchronized (fileLock) {
+                for (long hash : liveRecords.keySet()) {
+                    if (liveBoards.remove(hash) != null) {
+                        pendingRecords.put(hash, new Record(REMOVE, hash));
+                    }
+                }
+            }
+
+            // adds, which are not written yet, are cancelled
+            pendingRecords.values().removeIf(record -> record.type == FIELD && liveBoards.remove(record.hash) != null);
+        }
+    }
+
+    /**
+     * Permanently stores field as a part of the generation result.
+     */
+    synchronized void addSnapshot(BugField field, int generation) {
+        pendingSnapshots.add(new Record(SNAPSHOT, generation, field));
+    }
+
+    /**
+     * Hands the pending window over to the writer, if the writer interval has passed since the last time.
+     */
+    void flush() {
+        flush(false);
+    }
+
+    /**
+     * @param force write the window now, even if it's necessary to wait for the place in the writer queue
+     */
+    synchronized void flush(boolean force) {
+        if (pendingRecords.isEmpty() && pendingSnapshots.isEmpty()) return;
+
+        long time = System.currentTimeMillis();
+        if (!force && time - lastFlushTime < writer.getInterval()) return;
+
+        List<Record> batch = new ArrayList<>(pendingRecords.values());
+        batch.addAll(pendingSnapshots);
+
+        BugFieldWriter.Task task = () -> write(batch);
+        if (force) {
+            writer.put(task);
+        } else if (!writer.offer(task)) {
+            // writer is busy, window is kept and grows
+            return;
+        }
+
+        pendingRecords.clear();
+        pendingSnapshots.clear();
+        this.lastFlushTime = time;
+    }
+
+    private void write(List<Record> batch) throws IOException {
+        synchronized (fileLock) {
+            int batchSize = batch.size() * recordSize;
+            if (buffer.capacity() < batchSize) {
+                this.buffer = ByteBuffer.allocate(Integer.highestOneBit(batchSize) * 2);
+            }
+
+            buffer.clear();
+
+            long startIndex = recordsCount;
+            for (Record record : batch) {
+                buffer.putInt(record.type).putInt(record.generation).putInt(record.steps).putLong(record.hash);
+                for (int i = 0; i < rows; ++i) {
+                    buffer.putInt(record.masks == null ? 0 : record.masks[i]);
+                }
+
+                indexRecord(record.type, record.hash, recordsCount++);
+            }
+
+            buffer.flip();
+            writeFully(buffer, getOffset(startIndex));
+
+            BugFieldWriter.Durability durability = writer.getDurability();
+            if (durability != BugFieldWriter.Durability.NONE) {
+                channel.force(durability == BugFieldWriter.Durability.ALL);
+            }
+
+            if (deadCount > COMPACT_MIN_DEAD && deadCount > liveRecords.size() + snapshotsCount) {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Rewrites only live and snapshot records into new file, which atomically replaces the archive.
+     * Pending window is not included, so call drain() before to compact everything.
+     */
+    void compact() throws IOException {
+        synchronized (fileLock) {
+            Path compactPath = Paths.get(path + ".compact");
+            Files.deleteIfExists(compactPath);
+
+            try (FileChannel compactChannel = FileChannel.open(compactPath,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(rows).putInt(recordSize).flip();
+                while (header.hasRemaining()) {
+                    compactChannel.write(header);
+                }
+
+                ByteBuffer record = ByteBuffer.allocate(recordSize);
+                for (long index = 0; index < recordsCount; ++index) {
+                    record.clear();
+                    readFully(record, getOffset(index));
+                    record.flip();
+
+                    int type = record.getInt(0);
+                    long hash = record.getLong(3 * Integer.BYTES);
+
+                    boolean keep = (type == SNAPSHOT)
+                            || (type == FIELD && liveRecords.getOrDefault(hash, -1L) == index);
+                    if (!keep) continue;
+
+                    while (record.hasRemaining()) {
+                        compactChannel.write(record);
+                    }
+                }
+
+                compactChannel.force(true);
+            }
+
+            channel.close();
+            Files.move(compactPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            openChannel();
+            readIndex();
+        }
+    }
+
+    /**
+     * Writes the pending window and waits for the writer.
+     */
+    void drain() {
+        flush(true);
+        writer.drain();
+    }
+
+    private BugField readField(long index) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        readFully(record, getOffset(index));
+        record.flip();
+
+        record.getInt(); // type
+        record.getInt(); // generation
+        int steps = record.getInt();
+        record.getLong(); // hash
+
+        int[] masks = new int[rows];
+        for (int i = 0; i < rows; ++i) {
+            masks[i] = record.getInt();
+        }
+
+        BugField field = BugField.getInstance(masks);
+        field.steps = steps;
+
+        return field;
+    }
+
+    /**
+     * @return fields of the current population, steps are not recalculated
+     */
+    List<BugField> readLive() throws IOException {
+        drain();
+
+        synchronized (fileLock) {
+            List<BugField> fields = new ArrayList<>();
+            for (long index : liveRecords.values()) {
+                fields.add(readField(index));
+            }
+
+            return fields;
+        }
+    }
+
+    /**
+     * @return snapshot fields of the generation, steps are not recalculated
+     */
+    List<BugField> readSnapshot(int generation) throws IOException {
+        drain();
+
+        synchronized (fileLock) {
+            List<BugField> fields = new ArrayList<>();
+
+            ByteBuffer record = ByteBuffer.allocate(2 * Integer.BYTES);
+            for (long index = 0; index < recordsCount; ++index) {
+                record.clear();
+                readFully(record, getOffset(index));
+
+                if (record.getInt(0) == SNAPSHOT && record.getInt(Integer.BYTES) == generation) {
+                    fields.add(readField(index));
+                }
+            }
+
+            return fields;
+        }
+    }
+
+    synchronized int getLiveCount() {
+        return liveBoards.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        drain();
+
+        synchronized (fileLock) {
+            channel.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        int pendingCount;
+        synchronized (this) {
+            pendingCount = pendingRecords.size() + pendingSnapshots.size();
+        }
+
+        synchronized (fileLock) {
+            return String.format("Archive %s: records %d, live %d, dead %d, snapshots %d, pending %d",
+                    path.getFileName(), recordsCount, liveRecords.size(), deadCount, snapshotsCount, pendingCount
+            );
+        }
+    }
+}
@@ -0,0 +1,279 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of the genetic algorithm state (or of the hard crossover), so a stopped search can be resumed where it was.
+ * State is serialized at once (fields can be recycled later) and the file is replaced atomically:
+ * content is written to the temporary file, forced to the device and renamed over the old checkpoint.
+ */
+public class BugFieldCheckpoint {
+
+    static final int MAGIC = 0x4247434B; // "BGCK"
+    static final int VERSION = 1;
+
+    static final int HARD_MUTATIONS = 1, PROCESS = 2, HARD_CROSSOVER = 3;
+
+    int phase;
+    int globalIteration;
+    Random random;
+
+    int[] startMasks;
+    int startSteps;
+
+    /**
+     * HARD_MUTATIONS and HARD_CROSSOVER phases: windows (or mask chunks), which are already merged into the best fields.
+     */
+    BitSet completedParts;
+    int[][] bestMasks;
+    long[] bestOrders;
+
+    /**
+     * PROCESS phase: population after the iteration and the stop criteria state.
+     */
+    int[][] populationMasks;
+    int iteration, lastUpdateIterationDelta;
+    boolean changed;
+
+    /**
+     * HARD_CROSSOVER phase: the search, which the completed parts belong to. It has no genetic algorithm header.
+     * Completed parts are indexes of chunks, so they are valid only for the same chunk size.
+     */
+    int[] firstMasks, secondMasks;
+    int maxCount, populationSize, chunkSize;
+
+    private BugFieldCheckpoint() {
+    }
+
+    static byte[] ofHardMutations(int globalIteration, Random random, BugField startField,
+                                  BitSet completedWindows, List<BugFieldUtils.BugFieldBestSet.Entry> bestEntries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        writeHeader(out, HARD_MUTATIONS, globalIteration, random, startField);
+        writeProgress(out, completedWindows, bestEntries);
+
+        return finish(bytes, out);
+    }
+
+    static byte[] ofHardCrossover(BugField firstField, BugField secondField, int maxCount, int populationSize,
+                                  BitSet completedChunks, List<BugFieldUtils.BugFieldBestSet.Entry> bestEntries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(HARD_CROSSOVER);
+
+        out.writeInt(maxCount);
+        out.writeInt(populationSize);
+        out.writeInt(BugFieldUtils.HARD_CROSSOVER_MASKS_PER_CHUNK);
+        writeMasks(out, firstField.masks);
+        writeMasks(out, secondField.masks);
+
+        writeProgress(out, completedChunks, bestEntries);
+
+        return finish(bytes, out);
+    }
+
+    /**
+     * @return true if the checkpoint is of the hard crossover with the same parameters
+     */
+    boolean isHardCrossoverOf(BugField firstField, BugField secondField, int maxCount, int populationSize) {
+        return phase == HARD_CROSSOVER
+                && this.maxCount == maxCount && this.populationSize == populationSize
+                && chunkSize == BugFieldUtils.HARD_CROSSOVER_MASKS_PER_CHUNK
+                && Arrays.equals(firstMasks, firstField.masks) && Arrays.equals(secondMasks, secondField.masks);
+    }
+
+    static byte[] ofProcess(int globalIteration, Random random, BugField startField,
+                            BugField[] population, int populationSize,
+                            int iteration, int lastUpdateIterationDelta, boolean changed) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        writeHeader(out, PROCESS, globalIteration, random, startField);
+
+        out.writeInt(iteration);
+        out.writeInt(lastUpdateIterationDelta);
+        out.writeBoolean(changed);
+
+        out.writeInt(populationSize);
+        for (int i = 0; i < populationSize; ++i) {
+            writeMasks(out, population[i].masks);
+        }
+
+        return finish(bytes, out);
+    }
+
+    private static void writeHeader(DataOutputStream out, int phase, int globalIteration,
+                                    Random random, BugField startField) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(phase);
+        out.writeInt(globalIteration);
+
+        ByteArrayOutputStream randomBytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream randomOut = new ObjectOutputStream(randomBytes)) {
+            randomOut.writeObject(random);
+        }
+
+        out.writeInt(randomBytes.size());
+        randomBytes.writeTo(out);
+
+        out.writeInt(startField.steps);
+        writeMasks(out, startField.masks);
+    }
+
+    private static void writeProgress(DataOutputStream out, BitSet completedParts,
+                                      List<BugFieldUtils.BugFieldBestSet.Entry> bestEntries) throws IOException {
+        long[] completedWords = completedParts.toLongArray();
+        out.writeInt(completedWords.length);
+        for (long word : completedWords) {
+            out.writeLong(word);
+        }
+
+        out.writeInt(bestEntries.size());
+        for (BugFieldUtils.BugFieldBestSet.Entry entry : bestEntries) {
+            out.writeLong(entry.order);
+            writeMasks(out, entry.field.masks);
+        }
+    }
+
+    private static void writeMasks(DataOutputStream out, int[] masks) throws IOException {
+        out.writeInt(masks.length);
+        for (int mask : masks) {
+            out.writeInt(mask);
+        }
+    }
+
+    private static byte[] finish(ByteArrayOutputStream bytes, DataOutputStream out) throws IOException {
+        out.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Synchronized, because the closed writer runs offered tasks by the caller thread, while its own thread
+     * can still write the older state to the same temporary file.
+     */
+    static synchronized void write(String name, byte[] state) throws IOException {
+        Path path = Paths.get(name), tmpPath = Paths.get(name + ".tmp");
+
+        try (FileOutputStream out = new FileOutputStream(tmpPath.toFile())) {
+            out.write(state);
+            out.getFD().sync();
+        }
+
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return checkpoint or null, if there is no valid checkpoint file
+     */
+    static BugFieldCheckpoint read(String name) {
+        File file = new File(name);
+        if (!file.exists()) return null;
+
+        try {
+            byte[] state = Files.readAllBytes(file.toPath());
+            if (state.length < Long.BYTES) throw new IOException("Checkpoint is too short");
+
+            CRC32 crc = new CRC32();
+            crc.update(state, 0, state.length - Long.BYTES);
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+            in.skipBytes(state.length - Long.BYTES);
+            if (in.readLong() != crc.getValue()) throw new IOException("Checkpoint checksum mismatch");
+
+            return read(new DataInputStream(new ByteArrayInputStream(state, 0, state.length - Long.BYTES)));
+        } catch (IOException | ClassNotFoundException e) {
+            System.out.println("Checkpoint " + name + " is ignored: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static BugFieldCheckpoint read(DataInputStream in) throws IOException, ClassNotFoundException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("Wrong checkpoint format");
+
+        BugFieldCheckpoint checkpoint = new BugFieldCheckpoint();
+        checkpoint.phase = in.readInt();
+
+        if (checkpoint.phase == HARD_CROSSOVER) {
+            checkpoint.maxCount = in.readInt();
+            checkpoint.populationSize = in.readInt();
+            checkpoint.chunkSize = in.readInt();
+            checkpoint.firstMasks = readMasks(in);
+            checkpoint.secondMasks = readMasks(in);
+
+            readProgress(in, checkpoint);
+            return checkpoint;
+        }
+
+        checkpoint.globalIteration = in.readInt();
+
+        byte[] randomBytes = new byte[in.readInt()];
+        in.readFully(randomBytes);
+        try (ObjectInputStream randomIn = new ObjectInputStream(new ByteArrayInputStream(randomBytes))) {
+            checkpoint.random = (Random) randomIn.readObject();
+        }
+
+        checkpoint.startSteps = in.readInt();
+        checkpoint.startMasks = readMasks(in);
+
+        if (checkpoint.phase == HARD_MUTATIONS) {
+            readProgress(in, checkpoint);
+        } else if (checkpoint.phase == PROCESS) {
+            checkpoint.iteration = in.readInt();
+            checkpoint.lastUpdateIterationDelta = in.readInt();
+            checkpoint.changed = in.readBoolean();
+
+            checkpoint.populationMasks = new int[in.readInt()][];
+            for (int i = 0; i < checkpoint.populationMasks.length; ++i) {
+                checkpoint.populationMasks[i] = readMasks(in);
+            }
+        } else {
+            throw new IOException("Unknown checkpoint phase " + checkpoint.phase);
+        }
+
+        return checkpoint;
+    }
+
+    private static void readProgress(DataInputStream in, BugFieldCheckpoint checkpoint) throws IOException {
+        long[] completedWords = new long[in.readInt()];
+        for (int i = 0; i < completedWords.length; ++i) {
+            completedWords[i] = in.readLong();
+        }
+
+        checkpoint.completedParts = BitSet.valueOf(completedWords);
+
+        int bestCount = in.readInt();
+        checkpoint.bestMasks = new int[bestCount][];
+        checkpoint.bestOrders = new long[bestCount];
+        for (int i = 0; i < bestCount; ++i) {
+            checkpoint.bestOrders[i] = in.readLong();
+            checkpoint.bestMasks[i] = readMasks(in);
+        }
+    }
+
+    private static int[] readMasks(DataInputStream in) throws IOException {
+        int[] masks = new int[in.readInt()];
+        for (int i = 0; i < masks.length; ++i) {
+            masks[i] = in.readInt();
+        }
+
+        return masks;
+    }
+}
@@ -0,0 +1,175 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coordinator of the worker processes (see BugFieldWorker): keeps the best fields sent by workers
+ * as the migrants pool, gives each worker its initial population and random migrants from the pool,
+ * and writes the best field to tmp. Workers can connect and disconnect at any time, each one by its own thread.
+ */
+public class BugFieldCoordinator {
+
+    private final BugFieldUtils.BugFieldBestSet migrants;
+    private final int migrantsCount;
+    private final Random random;
+
+    private final AtomicInteger workerIds, workersCount;
+
+    /**
+     * Guarded by migrants.
+     */
+    private long nextOrder;
+    private int bestSteps;
+
+    BugFieldCoordinator(BugField startField, int poolSize, int migrantsCount, Random random) {
+        this.migrants = new BugFieldUtils.BugFieldBestSet(poolSize);
+        this.migrantsCount = migrantsCount;
+        this.random = random;
+
+        this.workerIds = new AtomicInteger();
+        this.workersCount = new AtomicInteger();
+
+        this.nextOrder = 0;
+        this.bestSteps = startField.steps;
+
+        migrants.add(BugField.create(startField), nextOrder++);
+    }
+
+    /**
+     * Accepts workers until the process is stopped.
+     *
+     * @param bindAddress address to accept workers on, or null for the loopback one
+     */
+    void serve(String bindAddress, int port) throws IOException {
+        InetAddress address = (bindAddress != null ? InetAddress.getByName(bindAddress) : InetAddress.getLoopbackAddress());
+
+        try (ServerSocket server = new ServerSocket(port, 50, address)) {
+            System.out.println(String.format("Coordinator on %s, start steps %d", server.getLocalSocketAddress(), bestSteps));
+
+            while (true) {
+                Socket socket = server.accept();
+                int workerId = workerIds.getAndIncrement();
+
+                Thread thread = new Thread(() -> serve(socket, workerId), "worker-" + workerId);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    private void serve(Socket socket, int workerId) {
+        String name = "worker " + workerId;
+
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+            int populationSize;
+            try {
+                populationSize = BugFieldProtocol.readHello(in);
+            } catch (IOException e) {
+                BugFieldProtocol.writeWelcome(out, -1);
+                out.flush();
+                throw e;
+            }
+
+            System.out.println(String.format("%s joined, workers %d", name, workersCount.incrementAndGet()));
+
+            try {
+                BugFieldProtocol.writeWelcome(out, workerId);
+                BugFieldProtocol.sendBoards(out, getBest(populationSize));
+
+                while (true) {
+                    byte type = in.readByte();
+
+                    if (type == BugFieldProtocol.EXCHANGE) {
+                        int worstSteps = in.readInt();
+                        receive(in, name);
+                        BugFieldProtocol.sendBoards(out, getMigrants(worstSteps));
+                    } else if (type == BugFieldProtocol.LEAVE) {
+                        receive(in, name);
+                        break;
+                    } else {
+                        throw new IOException("Unknown message " + type);
+                    }
+                }
+            } finally {
+                System.out.println(String.format("%s left, workers %d", name, workersCount.decrementAndGet()));
+            }
+        } catch (IOException e) {
+            System.out.println(name + ": " + e);
+        }
+    }
+
+    private void receive(DataInputStream in, String name) throws IOException {
+        for (BugField field : BugFieldProtocol.readBoards(in, migrants::canAdd)) {
+            synchronized (migrants) {
+                BugField removed = migrants.add(field, nextOrder++);
+                if (removed != null) {
+                    BugField.delete(removed);
+                }
+
+                if (removed != field && field.steps > bestSteps) {
+                    this.bestSteps = field.steps;
+                    field.printToTmp();
+
+                    System.out.println(String.format("%s: best steps %d", name, bestSteps));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return copies of the best fields of the pool
+     */
+    private BugField[] getBest(int count) {
+        synchronized (migrants) {
+            List<BugField> best = new ArrayList<>();
+            for (BugFieldUtils.BugFieldBestSet.Entry entry : migrants.getEntries()) {
+                best.add(entry.field);
+            }
+
+            best.sort(null);
+
+            BugField[] fields = new BugField[Math.min(count, best.size())];
+            for (int i = 0; i < fields.length; ++i) {
+                fields[i] = BugField.create(best.get(i));
+            }
+
+            return fields;
+        }
+    }
+
+    /**
+     * @return copies of random fields of the pool, which are better than worstSteps
+     */
+    private BugField[] getMigrants(int worstSteps) {
+        synchronized (migrants) {
+            List<BugField> candidates = new ArrayList<>();
+            for (BugFieldUtils.BugFieldBestSet.Entry entry : migrants.getEntries()) {
+                if (entry.field.steps > worstSteps) {
+                    candidates.add(entry.field);
+                }
+            }
+
+            BugField[] fields = new BugField[Math.min(migrantsCount, candidates.size())];
+            for (int i = 0; i < fields.length; ++i) {
+                int index = i + random.nextInt(candidates.size() - i);
+
+                BugField field = candidates.get(index);
+                candidates.set(index, candidates.get(i));
+
+                fields[i] = BugField.create(field);
+            }
+
+            return fields;
+        }
+    }
+}
@@ -1,14 +1,48 @@
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class BugFieldGeneticAlgorithm {
 
-    private static final Random rnd = new Random();
-
-    private static String getStartFieldName(String bestFieldName) {
+    /**
+     * Rank of the start field in the score index, 0 is the best one.
+     */
+    private static final int START_RANK = Integer.getInteger("start.rank", 0);
+
+    /**
+     * Start field is taken from the score index. Working directory is scanned only if the index is empty
+     * (or unreadable), then its best fields are added to the index; fields put there by hand later
+     * are added by the "index" argument (see indexFields).
+     */
+    private static String getStartFieldName(String bestFieldName) throws IOException {
         if (null != bestFieldName) return bestFieldName;
 
-        int bestFieldScore = -1;
+        if (BugField.scoreIndex.size() == 0) {
+            // only the best ones can get into the index
+            List<String> fieldNames = getWorkingDirectoryFieldNames();
+            indexFields(fieldNames.subList(0, Math.min(fieldNames.size(), BugField.SCORE_INDEX_SIZE)));
+        }
+
+        BugFieldScoreIndex.Entry entry = BugField.scoreIndex.get(START_RANK);
+        if (entry != null && new File(entry.fileName).exists()) {
+            System.out.println(String.format("Start field %s, rank %d of %d", entry.fileName, START_RANK, BugField.scoreIndex.size()));
+            return entry.fileName;
+        }
+
+        // no such rank (or its file is removed), so the best field in the working directory is taken
+        List<String> fieldNames = getWorkingDirectoryFieldNames();
+        return (fieldNames.isEmpty() ? null : fieldNames.get(0));
+    }
+
+    /**
+     * @return names of fields "steps ....zip" in the working directory, the best ones first
+     */
+    private static List<String> getWorkingDirectoryFieldNames() {
+        List<String> fieldNames = new ArrayList<>();
+        Map<String, Integer> fieldScores = new HashMap<>();
 
         File directory = new File("");
         directory = new File(directory.getAbsolutePath());
@@ -24,216 +58,747 @@ public class BugFieldGeneticAlgorithm {
                 continue;
             }
 
-            int fieldScore = Integer.parseInt(fileName.substring(0, spaceIndex));
-            if (bestFieldScore < fieldScore) {
-                bestFieldScore = fieldScore;
-                bestFieldName = fileName;
-            }
+            fieldNames.add(fileName);
+            fieldScores.put(fileName, Integer.parseInt(fileName.substring(0, spaceIndex)));
+        }
+
+        fieldNames.sort((a, b) -> Integer.compare(fieldScores.get(b), fieldScores.get(a)));
+        return fieldNames;
+    }
+
+    private static void indexFields(List<String> fieldNames) throws IOException {
+        boolean changed = false;
+
+        for (String fieldName : fieldNames) {
+            BugField field = BugField.readFromZip(fieldName);
+            changed |= BugField.scoreIndex.add(field.steps, field.hash, fieldName);
+            BugField.delete(field);
         }
 
-        return bestFieldName;
+        if (changed) {
+            BugField.scoreIndex.write(BugField.WRITE_DURABILITY != BugFieldWriter.Durability.NONE);
+        }
+
+        System.out.println(BugField.scoreIndex);
     }
 
     private static final int POPULATION_SIZE = 20;
     private static final int HARD_MUTATION_SIZE = 12;
     private static final int FILTER_STOP_ITERATIONS = 300, FILTER_STOP_PERCENTAGE = 10, FILTER_STOP_DELTA = 200;
     private static final int NON_CHANGE_STOP_ITERATIONS = 2000;
+    private static final int THREADS_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Population is seeded by parallel tempering from the start field, if there are annealing rounds
+     * (see BugFieldAnnealing), otherwise by hardMutations.
+     */
+    private static final int ANNEALING_ROUNDS = Integer.getInteger("annealing.rounds", 0);
+    private static final int ANNEALING_REPLICAS = Integer.getInteger("annealing.replicas", 8);
+    private static final int ANNEALING_FLIPS = Integer.getInteger("annealing.flips", 1000);
+    private static final double ANNEALING_MIN_TEMPERATURE =
+            Double.parseDouble(System.getProperty("annealing.minTemperature", "1"));
+    private static final double ANNEALING_MAX_TEMPERATURE =
+            Double.parseDouble(System.getProperty("annealing.maxTemperature", "200"));
+
+    /**
+     * More than one island runs populations in parallel (0 is one island per core), see BugFieldIslands.
+     */
+    private static final int ISLANDS_COUNT = Integer.getInteger("islands", 1);
+    private static final int MIGRATION_INTERVAL = Integer.getInteger("islands.migration", 50);
+    private static final int MIGRANTS_COUNT = Integer.getInteger("islands.migrants", 2);
+    private static final BugFieldIslands.Topology MIGRATION_TOPOLOGY =
+            BugFieldIslands.Topology.valueOf(System.getProperty("islands.topology", "RING"));
+
+    /**
+     * Separate processes: "coordinator" argument runs BugFieldCoordinator,
+     * "worker" argument runs BugFieldWorker with its islands.
+     * Coordinator accepts workers on the loopback address, unless coordinator.bind is set (e.g. 0.0.0.0 for all interfaces);
+     * workers are not authenticated, so other addresses are only for trusted networks.
+     */
+    private static final String COORDINATOR_BIND = System.getProperty("coordinator.bind");
+    private static final String COORDINATOR_HOST = System.getProperty("coordinator.host", "localhost");
+    private static final int COORDINATOR_PORT = Integer.getInteger("coordinator.port", 4210);
+    private static final int COORDINATOR_POOL_SIZE = Integer.getInteger("coordinator.pool", 64);
+    private static final int WORKER_ISLANDS_COUNT = Integer.getInteger("worker.islands", 1);
+    private static final int WORKER_ITERATIONS = Integer.getInteger("worker.iterations", 0);
+
+    private static final String CHECKPOINT_NAME = System.getProperty("checkpoint.name", "ga.checkpoint");
+    static final long CHECKPOINT_INTERVAL = Long.getLong("checkpoint.interval", 60000);
+
+    /**
+     * "crossover first.zip second.zip" arguments run the parallel hardCrossover of two fields,
+     * which is resumed from its own checkpoint, if it's of the same fields.
+     */
+    private static final int CROSSOVER_MAX_COUNT = Integer.getInteger("crossover.maxCount", 16);
+    private static final String CROSSOVER_CHECKPOINT_NAME = System.getProperty("crossover.checkpoint", "crossover.checkpoint");
 
     public static void main(String[] args) throws IOException {
-        String startFieldName = getStartFieldName(null);
-        BugField startField = BugField.readFromZip(startFieldName);
-
         final int populationSize = POPULATION_SIZE;
-        BugFieldGeneticAlgorithm algo = new BugFieldGeneticAlgorithm(populationSize);
 
-        for (int globalIteration = 0; ; ++globalIteration) {
+        String mode = (args.length > 0 ? args[0] : "");
+
+        BugField.startMetrics();
+        if (!mode.equals("worker")) {
+            BugField.startPersistence();
+        }
+
+        if (mode.equals("index")) {
+            indexFields(Arrays.asList(args).subList(1, args.length));
+            return;
+        } else if (mode.equals("coordinator")) {
+            BugField startField = BugField.readFromZip(getStartFieldName(null));
+
+            long seed = Long.getLong("seed", System.nanoTime());
+            System.out.println("seed " + seed);
+
+            new BugFieldCoordinator(startField, COORDINATOR_POOL_SIZE, MIGRANTS_COUNT, new Random(seed))
+                    .serve(COORDINATOR_BIND, COORDINATOR_PORT);
+            return;
+        } else if (mode.equals("worker")) {
+            // best fields are written by the coordinator, so persistence is not started
+            long seed = Long.getLong("seed", System.nanoTime());
+            System.out.println("seed " + seed);
+
+            new BugFieldWorker(COORDINATOR_HOST, COORDINATOR_PORT, populationSize,
+                    MIGRATION_INTERVAL, MIGRANTS_COUNT, WORKER_ITERATIONS)
+                    .run(WORKER_ISLANDS_COUNT, new Random(seed));
+
+            System.out.println(BugField.metrics);
+            return;
+        } else if (mode.equals("crossover")) {
+            hardCrossover(BugField.readFromZip(args[1]), BugField.readFromZip(args[2]), populationSize);
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(THREADS_COUNT);
+
+        BugFieldCheckpoint checkpoint = BugFieldCheckpoint.read(CHECKPOINT_NAME);
+
+        BugField startField;
+        Random random;
+        int startGlobalIteration;
+
+        if (checkpoint != null) {
+            startField = BugField.create(checkpoint.startMasks);
+            random = checkpoint.random;
+            startGlobalIteration = checkpoint.globalIteration;
+
+            System.out.println(String.format("Resume from %s: global iteration %d, %s, start steps %d",
+                    CHECKPOINT_NAME, startGlobalIteration,
+                    (checkpoint.phase == BugFieldCheckpoint.HARD_MUTATIONS ? "hard mutations" : "iteration " + checkpoint.iteration),
+                    startField.steps
+            ));
+        } else {
+            String startFieldName = getStartFieldName(null);
+            startField = BugField.readFromZip(startFieldName);
+
+            long seed = Long.getLong("seed", System.nanoTime());
+            System.out.println("seed " + seed);
+
+            random = new Random(seed);
+            startGlobalIteration = 0;
+        }
+
+        BugFieldArchive archive = BugFieldArchive.open(BugField.POPULATION_ARCHIVE_NAME, BugField.SITE_N, BugField.writer);
+        BugField.closeOnShutdown(archive);
+
+        // population of the stopped run is added again by process
+        archive.removeAll();
+
+        BugFieldGeneticAlgorithm algo = new BugFieldGeneticAlgorithm(populationSize, pool, random, archive, CHECKPOINT_NAME);
+
+        int islandsCount = (ISLANDS_COUNT > 0 ? ISLANDS_COUNT : THREADS_COUNT);
+        BugFieldIslands islands = (islandsCount > 1
+                ? new BugFieldIslands(islandsCount, populationSize, random, MIGRATION_TOPOLOGY, MIGRATION_INTERVAL, MIGRANTS_COUNT,
+                        CHECKPOINT_NAME)
+                : null
+        );
+
+        BugFieldAnnealing annealing = (ANNEALING_ROUNDS > 0
+                ? new BugFieldAnnealing(ANNEALING_REPLICAS, ANNEALING_MIN_TEMPERATURE, ANNEALING_MAX_TEMPERATURE,
+                        ANNEALING_FLIPS, pool, random)
+                : null
+        );
+
+        for (int globalIteration = startGlobalIteration; ; ++globalIteration) {
             BugField[] fields = new BugField[populationSize];
 
-            for (int i = 0; i < populationSize; ++i) {
-                fields[i] = BugField.create();
-            }
+            BugFieldCheckpoint resume = null;
+            if (checkpoint != null && checkpoint.phase == BugFieldCheckpoint.PROCESS) {
+                resume = checkpoint;
+
+                for (int i = 0; i < populationSize; ++i) {
+                    fields[i] = BugField.create(checkpoint.populationMasks[i]);
+                }
+            } else {
+                BugFieldUtils.SearchProgress progress = algo.createProgress(startField, globalIteration, checkpoint);
+
+                // population is owned by process, start field is kept for checkpoints
+                fields[0] = BugField.create(startField);
 
-            fields[0] = startField;
+                BugField[] seeds = (annealing != null
+                        ? annealing.process(startField, ANNEALING_ROUNDS, populationSize - 1)
+                        : BugFieldUtils.hardMutations(startField, populationSize - 1, HARD_MUTATION_SIZE, pool, progress)
+                );
 
-            BugField[] hardMutants = BugFieldUtils.hardMutations(startField, populationSize - 1, HARD_MUTATION_SIZE);
-            for (int i = 1; i < populationSize && i - 1 < hardMutants.length; ++i) {
-                fields[i] = hardMutants[i - 1];
+                for (int i = 1; i < populationSize; ++i) {
+                    fields[i] = (i - 1 < seeds.length ? seeds[i - 1] : BugField.create());
+                }
             }
 
-            BugField[] bestFields = algo.process(
-                    fields, startField.steps,
-                    NON_CHANGE_STOP_ITERATIONS,
-                    FILTER_STOP_ITERATIONS, FILTER_STOP_PERCENTAGE, FILTER_STOP_DELTA
+            checkpoint = null;
+
+            BugField[] bestFields = (islands != null
+                    ? islands.process(
+                            fields, startField, globalIteration, resume,
+                            NON_CHANGE_STOP_ITERATIONS,
+                            FILTER_STOP_ITERATIONS, FILTER_STOP_PERCENTAGE, FILTER_STOP_DELTA
+                    )
+                    : algo.process(
+                            fields, startField, globalIteration, resume,
+                            NON_CHANGE_STOP_ITERATIONS,
+                            FILTER_STOP_ITERATIONS, FILTER_STOP_PERCENTAGE, FILTER_STOP_DELTA
+                    )
             );
 
+            BugField.delete(startField);
             startField = BugField.create(bestFields[0]);
 
-            String populationDirectoryName = BugField.POPULATION_DIRECTORY_NAME + "_" + globalIteration;
-            new File(populationDirectoryName).mkdir();
-
             for (BugField field : bestFields) {
-                field.printToDirectory(populationDirectoryName);
+                archive.addSnapshot(field, globalIteration);
                 BugField.delete(field);
             }
+
+            archive.flush(true);
+
+            System.out.println(archive);
+            System.out.println(BugField.pool);
+            if (BugField.stepsCache != null) {
+                System.out.println(BugField.stepsCache);
+            }
+
+            System.out.println(BugField.metrics);
+        }
+    }
+
+    private static void hardCrossover(BugField firstField, BugField secondField, int populationSize) throws IOException {
+        BugFieldCheckpoint checkpoint = BugFieldCheckpoint.read(CROSSOVER_CHECKPOINT_NAME);
+        if (checkpoint != null && !checkpoint.isHardCrossoverOf(firstField, secondField, CROSSOVER_MAX_COUNT, populationSize)) {
+            System.out.println("Checkpoint " + CROSSOVER_CHECKPOINT_NAME + " is ignored: other crossover");
+            checkpoint = null;
+        }
+
+        long[] lastCheckpointTime = { System.currentTimeMillis() };
+        BugFieldUtils.SearchProgress.Listener listener = (completedChunks, bestEntries) -> {
+            if (System.currentTimeMillis() - lastCheckpointTime[0] < CHECKPOINT_INTERVAL) return;
+
+            try {
+                byte[] state = BugFieldCheckpoint.ofHardCrossover(
+                        firstField, secondField, CROSSOVER_MAX_COUNT, populationSize, completedChunks, bestEntries
+                );
+
+                // writer is busy, next time state will be newer anyway
+                if (BugField.writer.offer(() -> BugFieldCheckpoint.write(CROSSOVER_CHECKPOINT_NAME, state))) {
+                    lastCheckpointTime[0] = System.currentTimeMillis();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        };
+
+        BugFieldUtils.SearchProgress progress;
+        if (checkpoint != null) {
+            System.out.println(String.format("Resume from %s: chunks completed %d",
+                    CROSSOVER_CHECKPOINT_NAME, checkpoint.completedParts.cardinality()));
+
+            progress = new BugFieldUtils.SearchProgress(
+                    checkpoint.completedParts, checkpoint.bestMasks, checkpoint.bestOrders, listener
+            );
+        } else {
+            progress = new BugFieldUtils.SearchProgress(listener);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(THREADS_COUNT);
+        BugField[] bestFields = BugFieldUtils.hardCrossover(
+                firstField, secondField, populationSize, CROSSOVER_MAX_COUNT, pool, progress
+        );
+        pool.shutdown();
+
+        StringBuilder steps = new StringBuilder();
+        for (BugField field : bestFields) {
+            steps.append(' ').append(field.steps);
+        }
+
+        System.out.println("Crossover:" + steps);
+
+        // completed search doesn't need its checkpoint, but the pending one must not be written after the removal
+        BugField.writer.drain();
+        Files.deleteIfExists(Paths.get(CROSSOVER_CHECKPOINT_NAME));
+
+        for (BugField field : bestFields) {
+            BugField.delete(field);
         }
+
+        System.out.println(BugField.metrics);
     }
 
+    private final String name;
+
     private final int populationSize;
     private final int[] bestSelected;
+    private final BugField[] selectedFields;
     private final BugField[] fields;
 
-    private BugFieldGeneticAlgorithm(int populationSize) {
+    private final ForkJoinPool pool;
+    private final Random random;
+
+    /**
+     * Population is not archived, if it's null.
+     */
+    private final BugFieldArchive archive;
+
+    /**
+     * Checkpoints are not written, if it's null.
+     */
+    private final String checkpointName;
+    private long lastCheckpointTime;
+
+    private final int[] firstParents, secondParents;
+    private final long[] childSeeds;
+
+    private BugFieldGeneticAlgorithm(int populationSize, ForkJoinPool pool, Random random,
+                                     BugFieldArchive archive, String checkpointName) {
+        this(populationSize, pool, random, archive, checkpointName, "");
+    }
+
+    /**
+     * @param name prefix of the progress lines
+     */
+    BugFieldGeneticAlgorithm(int populationSize, ForkJoinPool pool, Random random,
+                             BugFieldArchive archive, String checkpointName, String name) {
+        this.name = name;
+
         this.populationSize = populationSize;
         this.bestSelected = new int[populationSize];
+        this.selectedFields = new BugField[populationSize];
 
         this.fields = new BugField[populationSize + (populationSize + 1) * populationSize / 2];
-    }
 
-    private BugField[] process(BugField[] fieldsInput, int startFieldSteps,
-                         int nonChangeStopIterations,
-                         int filterStopIterations, int filterStopPercentage, int filterStopDelta) {
-        final int filterStopSize = (populationSize * filterStopPercentage - 1) / 100 + 1;
-        final int filterStopIndex = populationSize - filterStopSize - 1;
+        this.pool = pool;
+        this.random = random;
 
-        System.arraycopy(fieldsInput, 0, fields, 0, populationSize);
-        Arrays.sort(fields, 0, populationSize);
+        this.archive = archive;
 
-        boolean changed = startFieldSteps < fields[0].steps;
+        this.checkpointName = checkpointName;
+        this.lastCheckpointTime = System.currentTimeMillis();
 
-        try {
-            for (int iteration = 0, lastUpdateIterationDelta = 1; ; ++iteration, lastUpdateIterationDelta++) {
-                int bestSteps = fields[0].steps;
+        this.firstParents = new int[fields.length];
+        this.secondParents = new int[fields.length];
+        this.childSeeds = new long[fields.length];
 
-                childGenerating();
-                selection();
+        for (int i = 0, index = populationSize; i < populationSize; ++i) {
+            firstParents[index] = i;
+            secondParents[index] = -1;
+            ++index;
 
-                BugField nextBestField = fields[0];
-                int nextBestSteps = nextBestField.steps;
+            for (int j = i + 1; j < populationSize; ++j, ++index) {
+                firstParents[index] = i;
+                secondParents[index] = j;
+            }
+        }
+    }
 
-                boolean updatedBest = bestSteps < nextBestSteps;
-                changed |= updatedBest;
+    private boolean isCheckpointTime() {
+        return checkpointName != null && System.currentTimeMillis() - lastCheckpointTime >= CHECKPOINT_INTERVAL;
+    }
 
-                if (updatedBest || iteration % 10 == 0) {
-                    System.out.println(iteration + " " + nextBestSteps);
+    /**
+     * @param force write the checkpoint, even if it's necessary to wait for the place in the writer queue
+     */
+    private void writeCheckpoint(byte[] state, boolean force) {
+        BugFieldWriter.Task task = () -> BugFieldCheckpoint.write(checkpointName, state);
+        if (force) {
+            BugField.writer.put(task);
+        } else if (!BugField.writer.offer(task)) {
+            // writer is busy, next time state will be newer anyway
+            return;
+        }
 
-                    if (updatedBest) {
-                        BugField bestField = BugField.create(nextBestField);
-                        bestField.printToTmp();
-                        BugField.delete(bestField);
-                    }
+        this.lastCheckpointTime = System.currentTimeMillis();
+    }
 
-                    if (updatedBest) {
-                        lastUpdateIterationDelta = 0;
-                    }
+    /**
+     * Progress of hardMutations for the start field, which writes checkpoints on completed tasks.
+     * If the checkpoint is not in the hard mutations phase, the empty progress is written at once.
+     */
+    private BugFieldUtils.SearchProgress createProgress(BugField startField, int generation,
+                                                               BugFieldCheckpoint checkpoint) throws IOException {
+        BugFieldUtils.SearchProgress.Listener listener = null;
+        if (checkpointName != null) {
+            listener = (completedWindows, bestEntries) -> {
+                if (!isCheckpointTime()) return;
+
+                try {
+                    writeCheckpoint(BugFieldCheckpoint.ofHardMutations(
+                            generation, random, startField, completedWindows, bestEntries
+                    ), false);
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
+            };
+        }
 
-                for (int i = 0; i < populationSize; ++i) {
-                    fields[i].printToPopulation();
+        if (checkpoint != null && checkpoint.phase == BugFieldCheckpoint.HARD_MUTATIONS) {
+            return new BugFieldUtils.SearchProgress(
+                    checkpoint.completedParts, checkpoint.bestMasks, checkpoint.bestOrders, listener
+            );
+        }
+
+        if (checkpointName != null) {
+            writeCheckpoint(BugFieldCheckpoint.ofHardMutations(
+                    generation, random, startField, new BitSet(), Collections.emptyList()
+            ), true);
+        }
+
+        return new BugFieldUtils.SearchProgress(listener);
+    }
+
+    /**
+     * @param resume checkpoint of the stopped process with the same fields, or null to start from the beginning
+     */
+    private BugField[] process(BugField[] fieldsInput, BugField startField, int generation,
+                         BugFieldCheckpoint resume,
+                         int nonChangeStopIterations,
+                         int filterStopIterations, int filterStopPercentage, int filterStopDelta) {
+        start(fieldsInput, generation);
+
+        boolean changed = (resume != null ? resume.changed : startField.steps < fields[0].steps);
+
+        int startIteration = (resume != null ? resume.iteration + 1 : 0);
+        int startLastUpdateIterationDelta = (resume != null ? resume.lastUpdateIterationDelta + 1 : 1);
+
+        try {
+            for (int iteration = startIteration, lastUpdateIterationDelta = startLastUpdateIterationDelta; ;
+                 ++iteration, lastUpdateIterationDelta++) {
+                boolean updatedBest = iterate(generation, iteration);
+                changed |= updatedBest;
+
+                if (updatedBest) {
+                    lastUpdateIterationDelta = 0;
                 }
 
                 if (changed) {
                     if (lastUpdateIterationDelta > nonChangeStopIterations) break;
                     else if (lastUpdateIterationDelta > filterStopIterations) {
-                        int filterDelta = nextBestSteps - fields[filterStopIndex].steps;
-                        if (filterDelta <= filterStopDelta) {
+                        if (getFilterDelta(filterStopPercentage) <= filterStopDelta) {
                             break;
                         }
                     }
                 }
+
+                if (isCheckpointTime()) {
+                    writeCheckpoint(BugFieldCheckpoint.ofProcess(
+                            generation, random, startField, fields, populationSize,
+                            iteration, lastUpdateIterationDelta, changed
+                    ), false);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
 
+        return finish(fieldsInput);
+    }
+
+    /**
+     * Takes the population, its fields are owned by the algorithm until finish.
+     */
+    void start(BugField[] fieldsInput, int generation) {
+        System.arraycopy(fieldsInput, 0, fields, 0, populationSize);
+        Arrays.sort(fields, 0, populationSize);
+
+        archiveAll(generation);
+    }
+
+    /**
+     * Generates children and selects the next population.
+     *
+     * @return true if the best field is updated
+     */
+    boolean iterate(int generation, int iteration) throws IOException {
+        BugSearchEvents.IterationEvent iterationEvent = new BugSearchEvents.IterationEvent();
+        iterationEvent.begin();
+
+        int bestSteps = fields[0].steps;
+
+        long startTime = System.nanoTime();
+        childGenerating();
+        BugField.metrics.addTime(BugSearchMetrics.Phase.CHILD_GENERATING, startTime);
+
+        startTime = System.nanoTime();
+        selection();
+        BugField.metrics.addTime(BugSearchMetrics.Phase.SELECTION, startTime);
+
+        BugField nextBestField = fields[0];
+        int nextBestSteps = nextBestField.steps;
+
+        boolean updatedBest = bestSteps < nextBestSteps;
+
+        if (iterationEvent.shouldCommit()) {
+            iterationEvent.generation = generation;
+            iterationEvent.iteration = iteration;
+            iterationEvent.bestSteps = nextBestSteps;
+            iterationEvent.worstSteps = fields[populationSize - 1].steps;
+            iterationEvent.updated = updatedBest;
+            iterationEvent.commit();
+        }
+
+        if (updatedBest || iteration % 10 == 0) {
+            System.out.println(name + iteration + " " + nextBestSteps);
+
+            if (updatedBest) {
+                nextBestField.printToTmp();
+            }
+        }
+
+        archiveAll(generation);
+
+        return updatedBest;
+    }
+
+    private void archiveAll(int generation) {
+        if (archive == null) return;
+
+        for (int i = 0; i < populationSize; ++i) {
+            archive.add(fields[i], generation);
+        }
+
+        archive.flush();
+    }
+
+    /**
+     * Removes the field from the population: from the archive and to the pool.
+     */
+    private void delete(BugField field) {
+        if (archive != null) {
+            archive.remove(field);
+        }
+
+        BugField.delete(field);
+    }
+
+    /**
+     * Adds the population to the list, fields stay owned by the algorithm.
+     */
+    void addPopulation(List<BugField> population) {
+        population.addAll(Arrays.asList(fields).subList(0, populationSize));
+    }
+
+    int getBestSteps() {
+        return fields[0].steps;
+    }
+
+    int getWorstSteps() {
+        return fields[populationSize - 1].steps;
+    }
+
+    /**
+     * @return steps difference between the best field and the field, which is better than filterStopPercentage of population
+     */
+    int getFilterDelta(int filterStopPercentage) {
+        int filterStopSize = (populationSize * filterStopPercentage - 1) / 100 + 1;
+        int filterStopIndex = populationSize - filterStopSize - 1;
+
+        return fields[0].steps - fields[filterStopIndex].steps;
+    }
+
+    /**
+     * Fills emigrants by copies of the best fields.
+     */
+    void emigrate(BugField[] emigrants) {
+        for (int i = 0; i < emigrants.length; ++i) {
+            emigrants[i] = BugField.create(fields[i]);
+        }
+    }
+
+    /**
+     * Immigrants, which are better than the worst fields, replace them; all immigrants are owned by the algorithm.
+     */
+    void immigrate(BugField[] immigrants) {
+        for (BugField immigrant : immigrants) {
+            BugField worstField = fields[populationSize - 1];
+            if (immigrant.steps <= worstField.steps) {
+                BugField.delete(immigrant);
+                continue;
+            }
+
+            delete(worstField);
+
+            fields[populationSize - 1] = immigrant;
+            Arrays.sort(fields, 0, populationSize);
+        }
+    }
+
+    /**
+     * Returns copies of the population and frees it.
+     */
+    BugField[] finish(BugField[] fieldsInput) {
         for (int i = 0; i < populationSize; ++i) {
             fieldsInput[i] = BugField.create(fields[i]);
-            fields[i].removeZip();
-            BugField.delete(fields[i]);
+            delete(fields[i]);
         }
 
         return fieldsInput;
     }
 
-    private static BugField crossover(BugField first, BugField second) {
+    static BugField crossover(BugField first, BugField second, Random rnd) {
         int n = first.n, m = first.m;
 
-        boolean[][] wall = new boolean[n][m];
-        for (int i = 0; i < n; ++i) {
-            wall[i][0] = wall[i][m - 1] = true;
-        }
-        for (int j = 0; j < m; ++j) {
-            wall[0][j] = wall[n - 1][j] = true;
-        }
+        int rowLimit = (1 << m) - 1;
+        int borderMask = 1 | (1 << (m - 1)), innerMask = rowLimit & ~borderMask;
+
+        int[] masks = new int[n];
+        masks[0] = masks[n - 1] = rowLimit;
 
 //        int sizeN = first.n / 4, sizeM = first.m / 4;
         int sizeN = 3, sizeM = 5;
 
-        boolean[][] firstWall = first.wall, secondWall = second.wall;
+        int[] firstMasks = first.masks, secondMasks = second.masks;
 
         for (int i = 1; i < n - 1; i += sizeN) {
+            // columns of the current blocks row, which are taken from the first parent
+            int firstColumns = 0;
             for (int j = 1; j < m - 1; j += sizeM) {
 //                boolean firstPart = rnd.nextDouble() < firstProb;
                 boolean firstPart = rnd.nextBoolean();
-                boolean[][] fromWall = (firstPart ? firstWall : secondWall);
-
-                for (int dx = 0; dx < sizeN && i + dx < n - 1; ++dx) {
-                    for (int dy = 0; dy < sizeM && j + dy < m - 1; ++dy) {
-                        wall[i + dx][j + dy] = fromWall[i + dx][j + dy];
-                    }
+                if (firstPart) {
+                    firstColumns |= ((1 << sizeM) - 1) << j;
                 }
             }
+
+            firstColumns &= innerMask;
+
+            for (int dx = 0; dx < sizeN && i + dx < n - 1; ++dx) {
+                int x = i + dx;
+                masks[x] = borderMask
+                        | (firstMasks[x] & firstColumns)
+                        | (secondMasks[x] & innerMask & ~firstColumns);
+            }
+        }
+
+        BugField child = BugField.create(masks);
+        if (BugFieldRepair.CROSSOVER) {
+            BugFieldRepair.repair(child, rnd);
         }
 
-        return BugField.create(wall);
+        return child;
     }
 
-    private static BugField mutation(BugField field, boolean mutateSelf) {
+    static BugField mutation(BugField field, boolean mutateSelf, Random rnd) {
         int sizeN = rnd.nextInt(field.n / 3) + 1;
         int sizeM = rnd.nextInt(field.m / 3) + 1;
 
         int startN = rnd.nextInt(field.n - sizeN - 1) + 1;
         int startM = rnd.nextInt(field.m - sizeM - 1) + 1;
 
-        boolean[][] wall = (mutateSelf ? field.wall : new boolean[field.n][field.m]);
-        if (!mutateSelf) {
-            for (int i = 0; i < field.n; ++i) {
-                wall[i] = field.wall[i].clone();
-            }
-        }
+        BugField mutant = (mutateSelf ? field : BugField.getInstance(field));
 
         for (int i = 0; i < sizeN; ++i) {
             for (int j = 0; j < sizeM; ++j) {
-                wall[i + startN][j + startM] = rnd.nextBoolean();
+                mutant.setCell(i + startN, j + startM, rnd.nextBoolean());
             }
         }
 
-        if (mutateSelf) {
-            field.recalculateSteps();
+        // for mutateSelf footprint of the field is still the one before mutation
+        mutant.recalculateSteps(field, startN, startM, sizeN, sizeM);
+
+        if (BugFieldRepair.MUTATION) {
+            BugFieldRepair.repair(mutant, rnd);
         }
 
-        return (mutateSelf ? field : BugField.create(wall));
+        return mutant;
     }
 
+    /**
+     * Each child has its own random stream, so children are the same for any threads count.
+     */
     private BugField[] childGenerating() throws IOException {
-        for (int i = 0, index = populationSize; i < populationSize; ++i) {
-            BugField firstParent = fields[i];
-            fields[index++] = mutation(firstParent, false);
+        BugSearchEvents.ChildGeneratingEvent event = new BugSearchEvents.ChildGeneratingEvent();
+        event.begin();
 
-            for (int j = i + 1; j < populationSize; ++j, ++index) {
-                BugField child = crossover(firstParent, fields[j]);
-                child = mutation(child, true);
+        for (int index = populationSize; index < fields.length; ++index) {
+            childSeeds[index] = random.nextLong();
+        }
 
-                fields[index] = child;
+        if (pool == null) {
+            for (int index = populationSize; index < fields.length; ++index) {
+                generateChild(index);
             }
+        } else {
+            pool.invoke(new ChildGeneratingTask(populationSize, fields.length));
+        }
+
+        if (event.shouldCommit()) {
+            int bestChildSteps = -1;
+            for (int index = populationSize; index < fields.length; ++index) {
+                bestChildSteps = Math.max(bestChildSteps, fields[index].steps);
+            }
+
+            event.children = fields.length - populationSize;
+            event.bestChildSteps = bestChildSteps;
+            event.commit();
         }
 
         return fields;
     }
 
+    private void generateChild(int index) {
+        Random rnd = new Random(childSeeds[index]);
+
+        BugField firstParent = fields[firstParents[index]];
+
+        BugField child;
+        if (secondParents[index] < 0) {
+            child = mutation(firstParent, false, rnd);
+        } else {
+            child = crossover(firstParent, fields[secondParents[index]], rnd);
+            child = mutation(child, true, rnd);
+        }
+
+        fields[index] = child;
+    }
+
+    private static final int CHILDREN_PER_TASK = 8;
+
+    private class ChildGeneratingTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final int from, to;
+
+        ChildGeneratingTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHILDREN_PER_TASK) {
+                for (int index = from; index < to; ++index) {
+                    generateChild(index);
+                }
+            } else {
+                int middle = (from + to) / 2;
+                invokeAll(new ChildGeneratingTask(from, middle), new ChildGeneratingTask(middle, to));
+            }
+        }
+    }
+
     private BugField[] selection() {
-        Arrays.sort(fields);
+        BugSearchEvents.SelectionEvent event = new BugSearchEvents.SelectionEvent();
+        event.begin();
 
-        BugField field;
+        Arrays.sort(fields);
 
         int selectedCount = 0;
         for (int i = 0; i < fields.length && selectedCount < populationSize; ++i) {
@@ -242,27 +807,39 @@ public class BugFieldGeneticAlgorithm {
             }
         }
 
-        for (int i = 0; i < populationSize; ++i) {
-            if (bestSelected[i] != i) {
-                field = fields[i];
-                if (field != null) {
-                    field.removeZip();
-                    BugField.delete(field);
-                }
+        int distinctCount = selectedCount;
 
-                fields[i] = fields[bestSelected[i]];
-                fields[bestSelected[i]] = null;
+        // too few distinct steps: the rest is the best of the other fields
+        for (int i = 0, distinct = 0; i < fields.length && selectedCount < populationSize; ++i) {
+            if (distinct < distinctCount && bestSelected[distinct] == i) {
+                ++distinct;
+            } else {
+                bestSelected[selectedCount++] = i;
             }
         }
 
-        for (int i = populationSize; i < fields.length; ++i) {
-            field = fields[i];
-            if (field != null) {
-                field.removeZip();
-                BugField.delete(field);
+        for (int i = 0; i < populationSize; ++i) {
+            selectedFields[i] = fields[bestSelected[i]];
+            fields[bestSelected[i]] = null;
+        }
+
+        for (int i = 0; i < fields.length; ++i) {
+            if (fields[i] != null) {
+                delete(fields[i]);
+                fields[i] = null;
             }
         }
 
+        System.arraycopy(selectedFields, 0, fields, 0, populationSize);
+        Arrays.sort(fields, 0, populationSize);
+
+        if (event.shouldCommit()) {
+            event.candidates = fields.length;
+            event.selected = distinctCount;
+            event.bestSteps = fields[0].steps;
+            event.commit();
+        }
+
         return fields;
     }
 }
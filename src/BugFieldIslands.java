@@ -0,0 +1,337 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Phaser;
+
+/**
+ * Island model: several populations evolve in parallel, each one by its own thread and with its own random,
+ * and meet only each migrationInterval iterations. Then copies of the best fields of each island replace
+ * the worst fields of its neighbour, and the common stop criteria are checked.
+ * Neighbours are chosen by the last arrived island, so the result doesn't depend on threads timing.
+ * Islands still share the process-wide steps cache (its striped locks) and the overflow queue of the field pool,
+ * so they can contend there, but neither of them changes the result.
+ * Islands don't archive their populations, only the merged result is archived by the caller.
+ * At a migration the last arrived island writes the checkpoint of the merged population and of the stop criteria,
+ * so the resumed islands start from it.
+ */
+public class BugFieldIslands {
+
+    enum Topology {
+        /**
+         * Island k gets migrants from island k - 1.
+         */
+        RING,
+        /**
+         * Each island gets migrants from another random island, each island sends them to one island.
+         */
+        RANDOM
+    }
+
+    private final BugFieldGeneticAlgorithm[] islands;
+    private final int populationSize;
+
+    private final Topology topology;
+    private final int migrationInterval, migrantsCount;
+
+    private final Random random;
+
+    /**
+     * Checkpoints are not written, if it's null.
+     */
+    private final String checkpointName;
+    private long lastCheckpointTime;
+
+    /**
+     * Emigrants of each island for even and odd migrations,
+     * so an island can fill the next ones while its neighbour takes the previous ones.
+     */
+    private final BugField[][][] emigrants;
+    private final int[] sources;
+
+    /**
+     * Reports of the islands for the stop criteria, each island writes only its own element.
+     */
+    private final int[] bestSteps, filterDeltas;
+
+    private int globalBestSteps, lastUpdateIteration;
+    private boolean changed;
+    private volatile boolean stopped;
+
+    BugFieldIslands(int islandsCount, int populationSize, Random random,
+                    Topology topology, int migrationInterval, int migrantsCount, String checkpointName) {
+        this.populationSize = populationSize;
+
+        this.topology = topology;
+        this.migrationInterval = migrationInterval;
+        this.migrantsCount = Math.min(migrantsCount, populationSize);
+
+        this.random = random;
+
+        this.checkpointName = checkpointName;
+
+        this.islands = new BugFieldGeneticAlgorithm[islandsCount];
+        for (int island = 0; island < islandsCount; ++island) {
+            islands[island] = new BugFieldGeneticAlgorithm(
+                    populationSize, null, new Random(random.nextLong()), null, null, "island " + island + ": "
+            );
+        }
+
+        this.emigrants = new BugField[2][islandsCount][this.migrantsCount];
+        this.sources = new int[islandsCount];
+
+        this.bestSteps = new int[islandsCount];
+        this.filterDeltas = new int[islandsCount];
+    }
+
+    /**
+     * Each island starts from a copy of the population.
+     *
+     * @param resume checkpoint of the stopped islands with the merged population, or null to start from the beginning
+     * @return the best fields of all islands, fields with distinct steps first
+     */
+    BugField[] process(BugField[] fieldsInput, BugField startField, int generation,
+                       BugFieldCheckpoint resume,
+                       int nonChangeStopIterations,
+                       int filterStopIterations, int filterStopPercentage, int filterStopDelta) {
+        int islandsCount = islands.length;
+
+        this.globalBestSteps = -1;
+        for (int i = 0; i < populationSize; ++i) {
+            globalBestSteps = Math.max(globalBestSteps, fieldsInput[i].steps);
+        }
+
+        int startIteration = (resume != null ? resume.iteration + 1 : 0);
+
+        this.lastUpdateIteration = (resume != null ? resume.iteration - resume.lastUpdateIterationDelta : -1);
+        this.changed = (resume != null ? resume.changed : startField.steps < globalBestSteps);
+        this.stopped = false;
+
+        this.lastCheckpointTime = System.currentTimeMillis();
+
+        Phaser phaser = new Phaser(islandsCount) {
+            @Override
+            protected boolean onAdvance(int phase, int registeredParties) {
+                int iteration = startIteration + (phase + 1) * migrationInterval - 1;
+
+                chooseSources();
+                checkStop(iteration, nonChangeStopIterations, filterStopIterations, filterStopDelta);
+
+                if (!stopped && isCheckpointTime()) {
+                    writeCheckpoint(generation, startField, iteration);
+                }
+
+                return false;
+            }
+        };
+
+        BugField[][] results = new BugField[islandsCount][populationSize];
+        Thread[] threads = new Thread[islandsCount];
+
+        for (int island = 0; island < islandsCount; ++island) {
+            BugField[] islandFields = results[island];
+            for (int i = 0; i < populationSize; ++i) {
+                islandFields[i] = (island == 0 ? fieldsInput[i] : BugField.create(fieldsInput[i]));
+            }
+
+            int islandIndex = island;
+            threads[island] = new Thread(() -> {
+                try {
+                    run(islandIndex, islandFields, generation, startIteration, filterStopPercentage, phaser);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    phaser.forceTermination();
+                }
+            }, "island-" + island);
+
+            threads[island].start();
+        }
+
+        for (Thread thread : threads) {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+
+        return merge(results, fieldsInput);
+    }
+
+    private void run(int island, BugField[] islandFields, int generation, int startIteration,
+                     int filterStopPercentage, Phaser phaser) throws Exception {
+        BugFieldGeneticAlgorithm algorithm = islands[island];
+        algorithm.start(islandFields, generation);
+
+        try {
+            for (int iteration = startIteration; !stopped; ++iteration) {
+                algorithm.iterate(generation, iteration);
+
+                // migrations are counted from the start, the resumed process may start at any iteration
+                if ((iteration + 1 - startIteration) % migrationInterval != 0) continue;
+
+                int migration = (iteration + 1 - startIteration) / migrationInterval;
+
+                algorithm.emigrate(emigrants[migration & 1][island]);
+                bestSteps[island] = algorithm.getBestSteps();
+                filterDeltas[island] = algorithm.getFilterDelta(filterStopPercentage);
+
+                if (phaser.arriveAndAwaitAdvance() < 0) break;
+
+                algorithm.immigrate(emigrants[migration & 1][sources[island]]);
+            }
+        } finally {
+            algorithm.finish(islandFields);
+        }
+    }
+
+    private void chooseSources() {
+        int islandsCount = islands.length;
+
+        if (topology == Topology.RING || islandsCount < 3) {
+            for (int island = 0; island < islandsCount; ++island) {
+                sources[island] = (island + islandsCount - 1) % islandsCount;
+            }
+
+            return;
+        }
+
+        // random permutation without fixed points, so each emigrant is taken exactly once
+        for (boolean fixed = true; fixed; ) {
+            for (int island = 0; island < islandsCount; ++island) {
+                sources[island] = island;
+            }
+
+            for (int island = islandsCount - 1; island > 0; --island) {
+                int other = random.nextInt(island + 1);
+
+                int source = sources[island];
+                sources[island] = sources[other];
+                sources[other] = source;
+            }
+
+            fixed = false;
+            for (int island = 0; island < islandsCount; ++island) {
+                fixed |= (sources[island] == island);
+            }
+        }
+    }
+
+    /**
+     * The same criteria as in process, but for the best field of all islands and the worst filter delta.
+     */
+    private void checkStop(int iteration, int nonChangeStopIterations, int filterStopIterations, int filterStopDelta) {
+        int iterationBestSteps = -1;
+        for (int steps : bestSteps) {
+            iterationBestSteps = Math.max(iterationBestSteps, steps);
+        }
+
+        if (iterationBestSteps > globalBestSteps) {
+            globalBestSteps = iterationBestSteps;
+            lastUpdateIteration = iteration;
+            changed = true;
+        }
+
+        if (!changed) return;
+
+        int lastUpdateIterationDelta = iteration - lastUpdateIteration;
+        if (lastUpdateIterationDelta > nonChangeStopIterations) {
+            stopped = true;
+        } else if (lastUpdateIterationDelta > filterStopIterations) {
+            int filterDelta = 0;
+            for (int delta : filterDeltas) {
+                filterDelta = Math.max(filterDelta, delta);
+            }
+
+            if (filterDelta <= filterStopDelta) {
+                stopped = true;
+            }
+        }
+
+        if (stopped) {
+            System.out.println(String.format("Islands stop at iteration %d, steps %d", iteration, globalBestSteps));
+        }
+    }
+
+    private boolean isCheckpointTime() {
+        return checkpointName != null && System.currentTimeMillis() - lastCheckpointTime >= BugFieldGeneticAlgorithm.CHECKPOINT_INTERVAL;
+    }
+
+    /**
+     * Called by the last arrived island, so populations of all islands are stable (before immigration).
+     * State is serialized at once, so the checkpoint doesn't hold the fields.
+     */
+    private void writeCheckpoint(int generation, BugField startField, int iteration) {
+        List<BugField> allFields = new ArrayList<>();
+        for (BugFieldGeneticAlgorithm island : islands) {
+            island.addPopulation(allFields);
+        }
+
+        BugField[] population = new BugField[populationSize];
+        select(allFields, population);
+
+        byte[] state;
+        try {
+            state = BugFieldCheckpoint.ofProcess(
+                    generation, random, startField, population, populationSize,
+                    iteration, iteration - lastUpdateIteration, changed
+            );
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        // writer is busy, next time state will be newer anyway
+        if (BugField.writer.offer(() -> BugFieldCheckpoint.write(checkpointName, state))) {
+            this.lastCheckpointTime = System.currentTimeMillis();
+        }
+    }
+
+    private BugField[] merge(BugField[][] results, BugField[] fieldsOutput) {
+        List<BugField> allFields = new ArrayList<>();
+        for (BugField[] islandFields : results) {
+            allFields.addAll(Arrays.asList(islandFields));
+        }
+
+        for (BugField field : select(allFields, fieldsOutput)) {
+            BugField.delete(field);
+        }
+
+        return fieldsOutput;
+    }
+
+    /**
+     * Fills fieldsOutput by the best fields, fields with distinct steps first.
+     *
+     * @return fields, which are not selected
+     */
+    private List<BugField> select(List<BugField> allFields, BugField[] fieldsOutput) {
+        allFields.sort(null);
+
+        List<BugField> rest = new ArrayList<>();
+
+        int count = 0;
+        for (int i = 0; i < allFields.size(); ++i) {
+            BugField field = allFields.get(i);
+            if (count < populationSize && (i == 0 || field.steps != allFields.get(i - 1).steps)) {
+                fieldsOutput[count++] = field;
+            } else {
+                rest.add(field);
+            }
+        }
+
+        List<BugField> unselected = new ArrayList<>();
+        for (BugField field : rest) {
+            if (count < populationSize) {
+                fieldsOutput[count++] = field;
+            } else {
+                unselected.add(field);
+            }
+        }
+
+        return unselected;
+    }
+}
@@ -0,0 +1,113 @@
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of free fields: each thread recycles through its own free list,
+ * surplus goes to the shared overflow queue, fields beyond both caps are left to gc.
+ */
+public class BugFieldPool {
+
+    private final int localCapacity, sharedCapacity;
+
+    private final ThreadLocal<ArrayDeque<BugField>> localFields;
+
+    private final Queue<BugField> sharedFields;
+    private final AtomicInteger sharedSize;
+
+    private final LongAdder hits, misses, dropped, live;
+
+    BugFieldPool(int localCapacity, int sharedCapacity) {
+        this.localCapacity = localCapacity;
+        this.sharedCapacity = sharedCapacity;
+
+        this.localFields = ThreadLocal.withInitial(ArrayDeque::new);
+
+        this.sharedFields = new ConcurrentLinkedQueue<>();
+        this.sharedSize = new AtomicInteger();
+
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.dropped = new LongAdder();
+        this.live = new LongAdder();
+    }
+
+    /**
+     * @return free field or null, if pool is empty and caller should allocate new one
+     */
+    BugField acquire() {
+        BugField field = localFields.get().poll();
+
+        if (field == null) {
+            field = sharedFields.poll();
+            if (field != null) {
+                sharedSize.decrementAndGet();
+            }
+        }
+
+        if (field == null) {
+            misses.increment();
+        } else {
+            field.free = false;
+            hits.increment();
+        }
+
+        live.increment();
+        return field;
+    }
+
+    void release(BugField field) {
+        if (field.free) {
+            throw new IllegalStateException("Field is already released");
+        }
+
+        field.free = true;
+        live.decrement();
+
+        ArrayDeque<BugField> local = localFields.get();
+        if (local.size() < localCapacity) {
+            local.push(field);
+            return;
+        }
+
+        if (sharedSize.incrementAndGet() <= sharedCapacity) {
+            sharedFields.add(field);
+        } else {
+            sharedSize.decrementAndGet();
+            dropped.increment();
+        }
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return count of acquired and not yet released fields
+     */
+    long getLive() {
+        return live.sum();
+    }
+
+    double getHitRate() {
+        long hitsCount = getHits(), total = hitsCount + getMisses();
+        return (total == 0 ? 0 : (double) hitsCount / total);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Pool hits %d, misses %d, hit rate %.3f, live %d, shared free %d, dropped %d",
+                getHits(), getMisses(), getHitRate(), getLive(), sharedSize.get(), getDropped()
+        );
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Binary protocol between BugFieldCoordinator and its workers over TCP.
+ * Board is packed as its steps and masks of the rows, so it takes (n + 1) ints.
+ * Steps are used only to skip boards, which would be dropped anyway; accepted boards are evaluated again.
+ *
+ * <pre>
+ * worker:      HELLO magic version n m populationSize
+ * coordinator: magic workerId boards             - initial population (workerId is -1, if worker is rejected)
+ * worker:      EXCHANGE worstSteps boards        - emigrants
+ * coordinator: boards                            - immigrants, which are better than worstSteps
+ * worker:      LEAVE boards                      - the best fields, then the connection is closed
+ * </pre>
+ */
+public class BugFieldProtocol {
+
+    static final int MAGIC = 0x42475750; // "BGWP"
+    static final int VERSION = 1;
+
+    static final byte HELLO = 1, EXCHANGE = 2, LEAVE = 3;
+
+    static final int MAX_BOARDS = 1 << 16;
+
+    static void writeHello(DataOutputStream out, int populationSize) throws IOException {
+        out.writeByte(HELLO);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(BugField.SITE_N);
+        out.writeInt(BugField.SITE_M);
+        out.writeInt(populationSize);
+        out.flush();
+    }
+
+    /**
+     * @return population size of the worker
+     */
+    static int readHello(DataInputStream in) throws IOException {
+        if (in.readByte() != HELLO || in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Wrong protocol");
+        }
+
+        int n = in.readInt(), m = in.readInt();
+        if (n != BugField.SITE_N || m != BugField.SITE_M) {
+            throw new IOException(String.format("Wrong field size %d x %d", n, m));
+        }
+
+        return in.readInt();
+    }
+
+    static void writeWelcome(DataOutputStream out, int workerId) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(workerId);
+    }
+
+    static int readWelcome(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Wrong protocol");
+
+        int workerId = in.readInt();
+        if (workerId < 0) throw new IOException("Worker is rejected");
+
+        return workerId;
+    }
+
+    static void writeBoards(DataOutputStream out, BugField[] fields) throws IOException {
+        out.writeInt(fields.length);
+        for (BugField field : fields) {
+            out.writeInt(field.steps);
+            for (int mask : field.masks) {
+                out.writeInt(mask);
+            }
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Writes the fields and deletes them, so they are usually copies.
+     */
+    static void sendBoards(DataOutputStream out, BugField[] fields) throws IOException {
+        try {
+            writeBoards(out, fields);
+        } finally {
+            for (BugField field : fields) {
+                BugField.delete(field);
+            }
+        }
+    }
+
+    static void sendExchange(DataOutputStream out, int worstSteps, BugField[] emigrants) throws IOException {
+        out.writeByte(EXCHANGE);
+        out.writeInt(worstSteps);
+        sendBoards(out, emigrants);
+    }
+
+    static void sendLeave(DataOutputStream out, BugField[] best) throws IOException {
+        out.writeByte(LEAVE);
+        sendBoards(out, best);
+    }
+
+    /**
+     * @param accepted boards with other steps are skipped without evaluation
+     * @return new fields, owned by the caller
+     * @throws IOException also if any board is malformed, so the walk can't leave it
+     */
+    static List<BugField> readBoards(DataInputStream in, IntPredicate accepted) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_BOARDS) throw new IOException("Wrong boards count " + count);
+
+        List<BugField> fields = new ArrayList<>();
+
+        int[] masks = new int[BugField.SITE_N];
+        for (int k = 0; k < count; ++k) {
+            int steps = in.readInt();
+            for (int i = 0; i < masks.length; ++i) {
+                masks[i] = in.readInt();
+            }
+
+            checkBoard(masks);
+
+            if (accepted.test(steps)) {
+                fields.add(BugField.create(masks));
+            }
+        }
+
+        return fields;
+    }
+
+    /**
+     * Border is walls, the start and the end are free, there are no cells outside the board.
+     */
+    private static void checkBoard(int[] masks) throws IOException {
+        int n = BugField.SITE_N, m = BugField.SITE_M;
+        int fullMask = (1 << m) - 1, borderMask = 1 | (1 << (m - 1));
+
+        if (masks[0] != fullMask || masks[n - 1] != fullMask) throw new IOException("Board without border rows");
+
+        for (int x = 1; x < n - 1; ++x) {
+            if ((masks[x] & ~fullMask) != 0) throw new IOException("Board row " + x + " is too wide");
+            if ((masks[x] & borderMask) != borderMask) throw new IOException("Board row " + x + " without border");
+        }
+
+        if (((masks[1] >> 1) & 1) != 0 || ((masks[n - 2] >> (m - 2)) & 1) != 0) {
+            throw new IOException("Board with the wall at the start or the end");
+        }
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Path repair, as connect in cpp/bug.cpp: if the start is disconnected from the end, walls of
+ * the cheapest path are removed, where each wall has a random removal cost and free cells are free.
+ * Costs are small (1..MAX_COST), so the shortest path is found by Dial's algorithm over cyclic buckets
+ * instead of the priority queue. Border is never removed.
+ */
+public class BugFieldRepair {
+
+    /**
+     * Operators, which repair their disconnected children instead of dropping them.
+     */
+    static final boolean CROSSOVER = Boolean.parseBoolean(System.getProperty("repair.crossover", "false"));
+    static final boolean MUTATION = Boolean.parseBoolean(System.getProperty("repair.mutation", "false"));
+    static final boolean HARD_CROSSOVER = Boolean.parseBoolean(System.getProperty("repair.hardCrossover", "false"));
+
+    static final int MAX_COST = 16;
+
+    private static final ThreadLocal<BugFieldRepair> repairs =
+            ThreadLocal.withInitial(() -> new BugFieldRepair(BugField.SITE_N, BugField.SITE_M));
+
+    /**
+     * Repairs the field, if it's disconnected, and recalculates its steps.
+     *
+     * @return true if the field is changed
+     */
+    static boolean repair(BugField field, Random rnd) {
+        if (field.steps >= 0) return false;
+
+        if (!repairs.get().connect(field, rnd)) return false;
+
+        field.recalculateSteps();
+        return true;
+    }
+
+    private final int n, m;
+    private final int start, end;
+
+    private final int[] costs, distances, parents;
+
+    /**
+     * Cell with distance d is in the bucket d % buckets.length, outdated entries are skipped.
+     */
+    private final int[][] buckets;
+    private final int[] bucketSizes;
+
+    private BugFieldRepair(int n, int m) {
+        this.n = n;
+        this.m = m;
+
+        this.start = m + 1;
+        this.end = (n - 2) * m + (m - 2);
+
+        this.costs = new int[n * m];
+        this.distances = new int[n * m];
+        this.parents = new int[n * m];
+
+        // each cell is added at most once per its neighbour (and the start once more)
+        this.buckets = new int[MAX_COST + 1][4 * n * m + 1];
+        this.bucketSizes = new int[MAX_COST + 1];
+    }
+
+    /**
+     * @return false if the field is already connected
+     */
+    private boolean connect(BugField field, Random rnd) {
+        int[] masks = field.masks;
+
+        if (BugField.getStepsCalculator().checkPathByMasks(masks)) return false;
+
+        for (int x = 0, v = 0; x < n; ++x) {
+            for (int y = 0; y < m; ++y, ++v) {
+                boolean border = (x == 0 || y == 0 || x == n - 1 || y == m - 1);
+
+                costs[v] = (border ? -1 : ((masks[x] >> y) & 1) != 0 ? 1 + rnd.nextInt(MAX_COST) : 0);
+                distances[v] = Integer.MAX_VALUE;
+                parents[v] = -1;
+            }
+        }
+
+        Arrays.fill(bucketSizes, 0);
+
+        distances[start] = costs[start];
+        add(start, distances[start]);
+
+        boolean reached = false;
+
+        int pending = 1;
+        for (int distance = distances[start]; pending > 0 && !reached; ++distance) {
+            int[] bucket = buckets[distance % buckets.length];
+
+            // zero cost cells are added to the current bucket during the loop
+            for (int k = 0; k < bucketSizes[distance % buckets.length]; ++k) {
+                int v = bucket[k];
+                --pending;
+
+                if (distances[v] != distance) continue;
+                if (v == end) {
+                    reached = true;
+                    break;
+                }
+
+                pending += relax(v, v - m, distance) + relax(v, v + m, distance)
+                        + relax(v, v - 1, distance) + relax(v, v + 1, distance);
+            }
+
+            bucketSizes[distance % buckets.length] = 0;
+        }
+
+        if (!reached) return false;
+
+        for (int v = end; v != -1; v = parents[v]) {
+            field.setCell(v / m, v % m, false);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return 1 if the cell is added to the buckets
+     */
+    private int relax(int from, int to, int distance) {
+        int cost = costs[to];
+        if (cost < 0 || distances[to] <= distance + cost) return 0;
+
+        distances[to] = distance + cost;
+        parents[to] = from;
+        add(to, distance + cost);
+
+        return 1;
+    }
+
+    private void add(int v, int distance) {
+        int index = distance % buckets.length;
+        buckets[index][bucketSizes[index]++] = v;
+    }
+}
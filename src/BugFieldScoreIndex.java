@@ -0,0 +1,132 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Best fields written to tmp, ordered by steps (the first one is the best),
+ * so the start field is found without listing directories.
+ * Index is small, so it's rewritten completely on each change: to the temporary file, then renamed.
+ */
+public class BugFieldScoreIndex {
+
+    static final int MAGIC = 0x42475358; // "BGSX"
+
+    static class Entry {
+        final int steps;
+        final long hash;
+        final String fileName;
+
+        Entry(int steps, long hash, String fileName) {
+            this.steps = steps;
+            this.hash = hash;
+            this.fileName = fileName;
+        }
+    }
+
+    private final Path path;
+    private final int capacity;
+
+    private final List<Entry> entries;
+
+    private BugFieldScoreIndex(Path path, int capacity) {
+        this.path = path;
+        this.capacity = capacity;
+        this.entries = new ArrayList<>();
+    }
+
+    /**
+     * Broken or missing index is replaced by the empty one.
+     */
+    static BugFieldScoreIndex open(String name, int capacity) {
+        BugFieldScoreIndex index = new BugFieldScoreIndex(Paths.get(name), capacity);
+        if (!Files.exists(index.path)) return index;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index.path)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Wrong index format");
+
+            for (int i = in.readInt(); i > 0; --i) {
+                index.add(in.readInt(), in.readLong(), in.readUTF());
+            }
+        } catch (IOException e) {
+            System.out.println("Index " + name + " is ignored: " + e.getMessage());
+            index.entries.clear();
+        }
+
+        return index;
+    }
+
+    /**
+     * @return true if index is changed, so it should be written
+     */
+    synchronized boolean add(int steps, long hash, String fileName) {
+        int position = entries.size();
+
+        for (int i = 0; i < entries.size(); ++i) {
+            Entry entry = entries.get(i);
+            if (entry.hash == hash) return false;
+
+            if (position == entries.size() && entry.steps < steps) {
+                position = i;
+            }
+        }
+
+        if (position >= capacity) return false;
+
+        entries.add(position, new Entry(steps, hash, fileName));
+        if (entries.size() > capacity) {
+            entries.remove(capacity);
+        }
+
+        return true;
+    }
+
+    synchronized void write(boolean sync) throws IOException {
+        Path tmpPath = Paths.get(path + ".tmp");
+
+        try (FileOutputStream fileOut = new FileOutputStream(tmpPath.toFile())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeInt(entry.steps);
+                out.writeLong(entry.hash);
+                out.writeUTF(entry.fileName);
+            }
+
+            out.flush();
+
+            if (sync) {
+                fileOut.getFD().sync();
+            }
+        }
+
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @param rank 0 for the best field
+     * @return entry or null, if there are not so many entries
+     */
+    synchronized Entry get(int rank) {
+        return (rank < entries.size() ? entries.get(rank) : null);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("Index ").append(path.getFileName()).append(':');
+        for (Entry entry : entries) {
+            builder.append(' ').append(entry.steps);
+        }
+
+        return builder.toString();
+    }
+}
@@ -1,21 +1,10 @@
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class BugFieldUtils {
 
-    static class BugFieldMinimumHeap extends PriorityQueue<BugField> {
-
-        BugFieldMinimumHeap() {
-            super((a, b) -> Integer.compare(a.steps, b.steps));
-        }
-
-        void fill(BugField[] fields, int size) {
-            for (int i = size - 1; i >= 0; --i) {
-                fields[i] = poll();
-            }
-        }
-    }
-
     static int getBit(int mask, int bit) { return ((mask >> bit) & 1); }
 
     static int getBit(long mask, int bit) { return (int)((mask >> bit) & 1); }
@@ -29,30 +18,176 @@ public class BugFieldUtils {
         return getBit(mask, bit) != 0;
     }
 
-    static BugField[] hardCrossover(BugField firstField, BugField secondField, int populationSize, int maxCount) throws IOException {
-        BugFieldMinimumHeap bestFields = new BugFieldMinimumHeap();
-        bestFields.add(firstField);
-        bestFields.add(secondField);
+    /**
+     * Repair of each child depends only on its board, so the result is the same for any order.
+     */
+    private static Random createRepairRandom() {
+        return (BugFieldRepair.HARD_CROSSOVER ? new Random() : null);
+    }
 
-        BugField tmpChildField = BugField.create();
-        boolean[][] childWall = tmpChildField.wall;
+    private static BugField createChild(int[] childMasks, long childHash, Random repairRandom) {
+        BugField childField = BugField.create(childMasks, childHash);
+        if (repairRandom != null && childField.steps < 0) {
+            repairRandom.setSeed(childField.hash);
+            BugFieldRepair.repair(childField, repairRandom);
+        }
+
+        return childField;
+    }
 
-        Set<String> unique = new HashSet<>();
+    /**
+     * Blocks of one (nCount, mCount) tiling of the inner part and the blocks, where parents differ.
+     * Bits of blocks, where parents are the same, don't change the child, so only different blocks are enumerated:
+     * in Gray code order, mask of the index is index ^ (index >> 1), so each next child takes one block from the other parent.
+     */
+    static class CrossoverTiling {
 
-        BugField totalBestField = (firstField.steps > secondField.steps ? firstField : secondField);
-        hardCrossover(firstField, secondField, populationSize, maxCount, bestFields, unique, totalBestField, childWall, true);
+        final int nCount, mCount;
+        final int nSize, mSize;
 
-        BugField[] resultFields = new BugField[populationSize];
-        bestFields.fill(resultFields, populationSize);
-        return resultFields;
-    }
+        /**
+         * Block is up to nSize inner rows from blockRows[block] with columns blockColumns[block].
+         */
+        final int size;
+        final int[] blockRows, blockColumns;
+
+        final int[] differentBlocks;
+        final int differentCount;
+
+        private final int innerN;
+
+        CrossoverTiling(BugField firstField, BugField secondField, int nCount, int mCount) {
+            int innerN = firstField.n - 2, innerM = firstField.m - 2;
+
+            this.nCount = nCount;
+            this.mCount = mCount;
+            this.nSize = (innerN - 1) / nCount + 1;
+            this.mSize = (innerM - 1) / mCount + 1;
+            this.innerN = innerN;
+
+            this.blockRows = new int[nCount * mCount];
+            this.blockColumns = new int[nCount * mCount];
+
+            int innerMask = ((1 << innerM) - 1) << 1;
+
+            int block = 0;
+            for (int i = 1; i <= innerN; i += nSize) {
+                for (int j = 1; j <= innerM; j += mSize, ++block) {
+                    blockRows[block] = i;
+                    blockColumns[block] = (int) ((((1L << mSize) - 1) << j) & innerMask);
+                }
+            }
+
+            this.size = block;
+
+            int[] firstMasks = firstField.masks, secondMasks = secondField.masks;
+
+            this.differentBlocks = new int[size];
+            int differentCount = 0;
+            for (block = 0; block < size; ++block) {
+                for (int x = blockRows[block]; x < blockRows[block] + nSize && x <= innerN; ++x) {
+                    if (((firstMasks[x] ^ secondMasks[x]) & blockColumns[block]) != 0) {
+                        differentBlocks[differentCount++] = block;
+                        break;
+                    }
+                }
+            }
+
+            this.differentCount = differentCount;
+        }
 
+        /**
+         * @return count of indexes, including the parents (all '0' and all '1'), which are not children
+         */
+        int getMaskSize() {
+            return (1 << differentCount);
+        }
+
+        boolean isChild(int index) {
+            int mask = index ^ (index >> 1);
+            return mask != 0 && mask != getMaskSize() - 1;
+        }
+
+        long getAllMasksCount() {
+            return (1L << size) - 2;
+        }
+
+        long getPrunedCount() {
+            return getAllMasksCount() - Math.max(getMaskSize() - 2, 0);
+        }
+
+        /**
+         * Fills childMasks by the child of the index.
+         *
+         * @return hash of the child
+         */
+        long setChild(int[] childMasks, BugField firstField, BugField secondField, int index) {
+            System.arraycopy(firstField.masks, 0, childMasks, 0, childMasks.length);
+            long hash = firstField.hash;
+
+            int mask = index ^ (index >> 1);
+            for (int bit = 0; bit < differentCount; ++bit) {
+                if (checkBit(mask, bit)) {
+                    hash = copyBlock(childMasks, secondField.masks, differentBlocks[bit], hash);
+                }
+            }
+
+            return hash;
+        }
+
+        /**
+         * Turns the child of index - 1 into the child of index, changed cells only.
+         *
+         * @return hash of the child
+         */
+        long nextChild(int[] childMasks, BugField firstField, BugField secondField, int index, long hash) {
+            int bit = Integer.numberOfTrailingZeros(index);
+            int mask = index ^ (index >> 1);
+
+            int[] parentMasks = (checkBit(mask, bit) ? secondField.masks : firstField.masks);
+            return copyBlock(childMasks, parentMasks, differentBlocks[bit], hash);
+        }
+
+        private long copyBlock(int[] childMasks, int[] parentMasks, int block, long hash) {
+            int columns = blockColumns[block];
 
-    static BugField hardCrossover(BugField firstField, BugField secondField, int populationSize, int maxCount, BugFieldMinimumHeap bestFields, Set<String> unique, BugField totalBestField, boolean[][] childWall, boolean verbose) throws IOException {
-        int n = firstField.n, m = firstField.m;
-        int innerN = n - 2, innerM = m - 2;
+            for (int x = blockRows[block]; x < blockRows[block] + nSize && x <= innerN; ++x) {
+                int changed = (childMasks[x] ^ parentMasks[x]) & columns;
 
-        boolean[][] firstWall = firstField.wall, secondWall = secondField.wall;
+                childMasks[x] ^= changed;
+                hash ^= BugField.getHash(x, changed);
+            }
+
+            return hash;
+        }
+
+        /**
+         * @return blocks of the child (1 is the block of the second parent), the first block is the last char
+         */
+        String getMaskString(int index) {
+            int mask = index ^ (index >> 1);
+
+            long blocksMask = 0;
+            for (int bit = 0; bit < differentCount; ++bit) {
+                if (checkBit(mask, bit)) {
+                    blocksMask |= (1L << differentBlocks[bit]);
+                }
+            }
+
+            return Long.toBinaryString((1L << size) + blocksMask).substring(1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("nCount(nSize) %d(%d), mCount(mSize) %d(%d)", nCount, nSize, mCount, mSize);
+        }
+    }
+
+    /**
+     * Tilings are listed in the order of sequential search.
+     */
+    static List<CrossoverTiling> getHardCrossoverTilings(BugField firstField, BugField secondField, int maxCount) {
+        List<CrossoverTiling> tilings = new ArrayList<>();
 
         int lastNCount = -1;
         for (int nCountIterator = 1; nCountIterator <= maxCount; ++nCountIterator) {
@@ -62,218 +197,558 @@ public class BugFieldUtils {
             if (lastNCount == nCount) continue;
             lastNCount = nCount;
 
-            int nSize = (innerN - 1) / nCount + 1;
-            int mSize = (innerM - 1) / mCount + 1;
+            tilings.add(new CrossoverTiling(firstField, secondField, nCount, mCount));
+        }
 
-            int size = nCount * mCount;
+        return tilings;
+    }
 
-            int[][] blockStarts = new int[size][2];
+    /**
+     * Keeps best distinct boards ordered by steps, then by order (smaller wins);
+     * if the same board is added several times, the one with the smallest order stays.
+     * So the content doesn't depend on the order in which candidates (or other sets) are added.
+     */
+    static class BugFieldBestSet {
 
-            int startIndex = 0;
-            for (int i = 1; i <= innerN; i += nSize) {
-                for (int j = 1; j <= innerM; j += mSize, ++startIndex) {
-                    blockStarts[startIndex][0] = i;
-                    blockStarts[startIndex][1] = j;
+        static class Entry {
+            final BugField field;
+            final long order;
+
+            Entry(BugField field, long order) {
+                this.field = field;
+                this.order = order;
+            }
+        }
+
+        private final int capacity;
+        private final PriorityQueue<Entry> entries;
+        private final BugFingerprintSet boards;
+
+        BugFieldBestSet(int capacity) {
+            this.capacity = capacity;
+            this.boards = new BugFingerprintSet(capacity + 1);
+            this.entries = new PriorityQueue<>((a, b) -> {
+                if (a.field.steps != b.field.steps) return Integer.compare(a.field.steps, b.field.steps);
+                return -Long.compare(a.order, b.order);
+            });
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized boolean canAdd(int steps) {
+            return entries.size() < capacity || steps > entries.peek().field.steps;
+        }
+
+        private Entry find(BugField field) {
+            if (!boards.contains(field.hash)) return null;
+
+            for (Entry entry : entries) {
+                if (entry.field.equals(field)) return entry;
+            }
+
+            return null;
+        }
+
+        /**
+         * Returns the field which was dropped from the set (possibly the added one) or null.
+         */
+        synchronized BugField add(BugField field, long order) {
+            Entry sameEntry = find(field);
+            BugField.metrics.dedupChecked(sameEntry != null);
+            if (sameEntry != null) {
+                if (sameEntry.order < order) return field;
+
+                entries.remove(sameEntry);
+                entries.add(new Entry(field, order));
+                return sameEntry.field;
+            }
+
+            entries.add(new Entry(field, order));
+            boards.add(field.hash);
+
+            if (entries.size() > capacity) {
+                BugField removed = entries.poll().field;
+                boards.remove(removed.hash);
+                return removed;
+            }
+
+            return null;
+        }
+
+        synchronized void addAll(BugFieldBestSet other) {
+            for (Entry entry : other.entries) {
+                BugField removed = add(entry.field, entry.order);
+                if (removed != null) {
+                    BugField.delete(removed);
+                }
+            }
+
+            other.entries.clear();
+            other.boards.clear();
+        }
+
+        /**
+         * Entries stay owned by the set, so they are valid only while its lock is held.
+         */
+        synchronized List<Entry> getEntries() {
+            return new ArrayList<>(entries);
+        }
+
+        synchronized BugField[] toArray() {
+            BugField[] fields = new BugField[entries.size()];
+            for (int i = fields.length - 1; i >= 0; --i) {
+                fields[i] = entries.poll().field;
+            }
+
+            boards.clear();
+
+            return fields;
+        }
+    }
+
+    static final int HARD_MUTATIONS_WINDOWS_PER_TASK = 4;
+
+    /**
+     * Completed parts of the search (windows of hardMutations or mask chunks of hardCrossover)
+     * and the best set entries they gave, so the search can be resumed.
+     */
+    static class SearchProgress {
+
+        interface Listener {
+            /**
+             * Called under the best set lock after each completed task, entries are valid only during the call.
+             */
+            void completed(BitSet completedParts, List<BugFieldBestSet.Entry> bestEntries);
+        }
+
+        /**
+         * Parts completed before the resume, they are skipped.
+         */
+        final BitSet restoredParts;
+        final int[][] restoredMasks;
+        final long[] restoredOrders;
+
+        final BitSet completedParts;
+        final Listener listener;
+
+        SearchProgress(Listener listener) {
+            this(new BitSet(), new int[0][], new long[0], listener);
+        }
+
+        SearchProgress(BitSet restoredParts, int[][] restoredMasks, long[] restoredOrders, Listener listener) {
+            this.restoredParts = restoredParts;
+            this.restoredMasks = restoredMasks;
+            this.restoredOrders = restoredOrders;
+
+            this.completedParts = (BitSet) restoredParts.clone();
+            this.listener = listener;
+        }
+
+        boolean isRestored(int partIndex) {
+            return restoredParts.get(partIndex);
+        }
+
+        void complete(int from, int to, BugFieldBestSet bestFields) {
+            completedParts.set(from, to);
+            if (listener != null) {
+                listener.completed(completedParts, bestFields.getEntries());
+            }
+        }
+    }
+
+    /**
+     * Window is {nSize, mSize, i, j}; windows are listed in the order of sequential search.
+     */
+    static List<int[]> getHardMutationsWindows(int n, int m, int maxSize) {
+        List<int[]> windows = new ArrayList<>();
+
+        int lastMSize = -1;
+        for (int nSizeIterator = 1; nSizeIterator <= maxSize; ++nSizeIterator) {
+            int mSize = maxSize / nSizeIterator;
+            if (mSize == lastMSize) continue;
+
+            int nSize = maxSize / mSize;
+            lastMSize = mSize;
+
+            for (int i = 1; i + nSize < n; ++i) {
+                for (int j = 1; j + mSize < m; ++j) {
+                    windows.add(new int[] { nSize, mSize, i, j });
                 }
             }
+        }
+
+        return windows;
+    }
+
+    static class HardMutationsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final BugField baseField;
+        final List<int[]> windows;
+        final int from, to;
+
+        final BugFieldBestSet bestFields;
+        final int[] totalBestSteps;
+
+        final SearchProgress progress;
+
+        HardMutationsTask(BugField baseField, List<int[]> windows, int from, int to,
+                          BugFieldBestSet bestFields, int[] totalBestSteps, SearchProgress progress) {
+            this.baseField = baseField;
+            this.windows = windows;
+            this.from = from;
+            this.to = to;
+
+            this.bestFields = bestFields;
+            this.totalBestSteps = totalBestSteps;
+
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= HARD_MUTATIONS_WINDOWS_PER_TASK) {
+                evaluate();
+            } else {
+                int middle = (from + to) / 2;
+                invokeAll(
+                        new HardMutationsTask(baseField, windows, from, middle, bestFields, totalBestSteps, progress),
+                        new HardMutationsTask(baseField, windows, middle, to, bestFields, totalBestSteps, progress)
+                );
+            }
+        }
+
+        void evaluate() {
+            // scratch board, its hash is updated only for changed cells
+            BugField mutantBoard = BugField.getInstance(baseField);
+
+            BugFieldBestSet localBestFields = new BugFieldBestSet(bestFields.capacity);
 
-            size = startIndex;
-            int maskSize = (1 << size), maskLimit = maskSize - 1; // we don't need all '0' and all '1'
+            for (int windowIndex = from; windowIndex < to; ++windowIndex) {
+                if (progress != null && progress.isRestored(windowIndex)) continue;
 
-            int verbosePart = maskSize / 10;
+                int[] window = windows.get(windowIndex);
+                int nSize = window[0], mSize = window[1], i = window[2], j = window[3];
 
-            for (int mask = 1; mask < maskLimit; ++mask) {
-                for (int bit = 0; bit < size; ++bit) {
-                    int nStart = blockStarts[bit][0], mStart = blockStarts[bit][1];
-                    boolean[][] parentWall = (checkBit(mask, bit) ? secondWall : firstWall);
+                int size = nSize * mSize;
+                int maskSize = (1 << size);
 
-                    for (int i = 0, x = nStart; i < nSize && x <= innerN; ++i, ++x) {
-                        for (int j = 0, y = mStart; j < mSize && y <= innerM; ++j, ++y) {
-                            childWall[x][y] = parentWall[x][y];
+                BugSearchEvents.HardMutationsWindowEvent event = new BugSearchEvents.HardMutationsWindowEvent();
+                event.begin();
+
+                int addedCount = 0, windowBestSteps = -1;
+
+                BugAcmp.BugStepsCalculator.Checkpoint checkpoint = BugField.createCheckpoint(baseField, i, j, nSize, mSize);
+
+                for (int mask = 0; mask < maskSize; ++mask) {
+                    for (int x = 0, bit = 0; x < nSize; ++x) {
+                        for (int y = 0; y < mSize; ++y, ++bit) {
+                            mutantBoard.setCell(i + x, j + y, checkBit(mask, bit));
                         }
                     }
-                }
 
-                BugField childField = BugField.create(childWall);
-                int childSteps = childField.steps;
-
-                if (verbose && mask % verbosePart == 0) {
-                    System.out.println(
-                            String.format("Verbose nCount(nSize) %d(%d), mCount(mSize) %d(%d), mask %s, steps %d",
-                                    nCount, nSize, mCount, mSize,
-                                    Integer.toBinaryString(maskSize + mask).substring(1),
-                                    totalBestField.steps
-                            )
-                    );
-                }
+                    BugField mutantField = BugField.create(mutantBoard, checkpoint);
+                    int mutantSteps = mutantField.steps;
+                    windowBestSteps = Math.max(windowBestSteps, mutantSteps);
 
-                if (bestFields.size() < populationSize || childSteps > bestFields.peek().steps) {
-                    boolean[][] clonedChildWall = new boolean[n][m];
-                    for (int row = 0; row < n; ++row) {
-                        System.arraycopy(childWall[row], 0, clonedChildWall[row], 0, m);
+                    if (!localBestFields.canAdd(mutantSteps)) {
+                        BugField.delete(mutantField);
+                        continue;
                     }
 
-                    childField = new BugField(clonedChildWall);
-                    childField.steps = childSteps;
+                    long order = ((long) windowIndex << Integer.SIZE) | mask;
+                    BugField removed = localBestFields.add(mutantField, order);
+                    if (removed != null) {
+                        BugField.delete(removed);
+                    }
 
-                    if (unique.add(childField.toString())) {
-                        bestFields.add(childField);
-                        if (bestFields.size() > populationSize) {
-                            BugField minField = bestFields.poll();
-                            unique.remove(minField.toString());
-                        }
+                    if (removed != mutantField) {
+                        ++addedCount;
+                        updateTotalBest(mutantField, nSize, mSize, i, j, maskSize, mask);
+                    }
+                }
 
-                        if (childSteps > totalBestField.steps) {
-                            totalBestField = childField;
-                            totalBestField.printToTmp();
-
-                            if (verbose) {
-                                System.out.println(
-                                        String.format("Update nCount(nSize) %d(%d), mCount(mSize) %d(%d), mask %s, steps %d",
-                                                nCount, nSize, mCount, mSize,
-                                                Integer.toBinaryString(maskSize + mask).substring(1),
-                                                totalBestField.steps
-                                        )
-                                );
-                            }
-                        }
+                for (int x = 0; x < nSize; ++x) {
+                    for (int y = 0; y < mSize; ++y) {
+                        mutantBoard.setCell(i + x, j + y, baseField.getCell(i + x, j + y));
                     }
                 }
+
+                if (event.shouldCommit()) {
+                    event.windowIndex = windowIndex;
+                    event.i = i;
+                    event.j = j;
+                    event.nSize = nSize;
+                    event.mSize = mSize;
+                    event.masks = maskSize;
+                    event.added = addedCount;
+                    event.bestSteps = windowBestSteps;
+                    event.commit();
+                }
             }
 
-            if (verbose) {
+            synchronized (bestFields) {
+                bestFields.addAll(localBestFields);
+
+                if (progress != null) {
+                    progress.complete(from, to, bestFields);
+                }
+            }
+
+            BugField.delete(mutantBoard);
+        }
+
+        private void updateTotalBest(BugField mutantField, int nSize, int mSize, int i, int j, int maskSize, int mask) {
+            synchronized (totalBestSteps) {
+                if (mutantField.steps <= totalBestSteps[0]) return;
+                totalBestSteps[0] = mutantField.steps;
+
                 System.out.println(
-                        String.format("nCount(nSize) %d(%d), mCount(mSize) %d(%d), steps %d",
-                                nCount, nSize, mCount, mSize,
-                                totalBestField.steps
+                        String.format("Update nSize %d, mSize %d, i %d, j %d, mask %s, steps %d",
+                                nSize, mSize, i, j,
+                                Integer.toBinaryString(maskSize + mask).substring(1),
+                                mutantField.steps
                         )
                 );
+
+                mutantField.printToTmp();
             }
         }
-
-        return totalBestField;
     }
 
     static BugField[] hardMutations(BugField baseField, int populationSize, int maxSize) throws IOException {
-        BugFieldMinimumHeap bestFields = new BugFieldMinimumHeap();
+        return hardMutations(baseField, populationSize, maxSize, null);
+    }
 
-        bestFields.add(baseField);
-        baseField.printToPopulation();
+    static BugField[] hardMutations(BugField baseField, int populationSize, int maxSize, ForkJoinPool pool) throws IOException {
+        return hardMutations(baseField, populationSize, maxSize, pool, null);
+    }
 
-        BugField totalBestField = BugField.create(baseField);
+    /**
+     * Evaluates all masks of all windows; if pool is not null, windows are split between its workers.
+     * Result is the same for both modes, and for the search resumed from the progress of the stopped one.
+     */
+    static BugField[] hardMutations(BugField baseField, int populationSize, int maxSize, ForkJoinPool pool,
+                                    SearchProgress progress) throws IOException {
+        long startTime = System.nanoTime();
+
+        BugFieldBestSet bestFields = new BugFieldBestSet(populationSize);
+        int[] totalBestSteps = { baseField.steps };
+
+        if (progress == null || progress.restoredMasks.length == 0) {
+            bestFields.add(BugField.create(baseField), -1);
+        } else {
+            // restored entries already contain the base field
+            restore(progress, bestFields, totalBestSteps);
+        }
 
-        int n = baseField.n, m = baseField.m;
-        boolean[][] baseWall = baseField.wall;
+        List<int[]> windows = getHardMutationsWindows(baseField.n, baseField.m, maxSize);
+        HardMutationsTask task = new HardMutationsTask(baseField, windows, 0, windows.size(), bestFields, totalBestSteps, progress);
 
-        boolean[][] mutantWall = new boolean[n][m];
-        for (int i = 0; i < n; ++i) {
-            System.arraycopy(baseWall[i], 0, mutantWall[i], 0, m);
+        if (pool == null) {
+            task.evaluate();
+        } else {
+            pool.invoke(task);
         }
 
-        int lastMSize = -1;
-        for (int nSizeIterator = 1; nSizeIterator <= maxSize; ++nSizeIterator) {
-            int mSize = maxSize / nSizeIterator;
-            if (mSize == lastMSize) continue;
+        BugField.metrics.addTime(BugSearchMetrics.Phase.HARD_MUTATIONS, startTime);
 
-            int nSize = maxSize / mSize;
-            lastMSize = mSize;
+        return bestFields.toArray();
+    }
 
-            int size = nSize * mSize;
-            int maskSize = (1 << size);
+    private static void restore(SearchProgress progress, BugFieldBestSet bestFields, int[] totalBestSteps) {
+        for (int i = 0; i < progress.restoredMasks.length; ++i) {
+            BugField restoredField = BugField.create(progress.restoredMasks[i]);
+            totalBestSteps[0] = Math.max(totalBestSteps[0], restoredField.steps);
 
-//            int verbosePart = maskSize / 10;
+            BugField removed = bestFields.add(restoredField, progress.restoredOrders[i]);
+            if (removed != null) {
+                BugField.delete(removed);
+            }
+        }
+    }
 
-            for (int i = 1; i + nSize < n; ++i) {
-                for (int j = 1; j + mSize < m; ++j) {
-                    for (int mask = 0; mask < maskSize; ++mask) {
-                        for (int x = 0, bit = 0; x < nSize; ++x) {
-                            for (int y = 0; y < mSize; ++y, ++bit) {
-                                mutantWall[i + x][j + y] = checkBit(mask, bit);
-                            }
-                        }
+    static final int HARD_CROSSOVER_MASKS_PER_CHUNK = Integer.getInteger("crossover.chunkSize", 1 << 12);
 
-                        BugField mutantField = BugField.create(mutantWall);
-                        int mutantSteps = mutantField.steps;
-
-//                        if (mask % verbosePart == 0) {
-//                            System.out.println(
-//                                    String.format("Verbose nSize %d, mSize %d, i %d, j %d, mask %s, steps %d",
-//                                            nSize, mSize, i, j,
-//                                            Integer.toBinaryString(maskSize + mask).substring(1),
-//                                            totalBestField.steps
-//                                    )
-//                            );
-//                        }
-
-                        boolean possibleAdd = bestFields.size() < populationSize || mutantSteps > bestFields.peek().steps;
-                        if (!possibleAdd) {
-                            mutantField.wall = null;
-                            BugField.delete(mutantField);
-                        } else {
-//                            mutantField.initMasks();
-
-                            boolean alreadyContained = false;
-                            for (BugField field : bestFields) {
-//                                alreadyContained |= field.equalsByMasks(mutantField);
-                                alreadyContained |= field.steps == mutantSteps;
-                                if (alreadyContained) break;
-                            }
-
-                            if (!alreadyContained) {
-                                if (mutantField.wall == mutantWall) {
-                                    boolean[][] clonedMutantWall = new boolean[n][m];
-                                    for (int row = 0; row < n; ++row) {
-                                        System.arraycopy(mutantWall[row], 0, clonedMutantWall[row], 0, m);
-                                    }
-
-                                    mutantField.wall = clonedMutantWall;
-                                }
-
-                                bestFields.add(mutantField);
-                                mutantField.printToPopulation();
-
-                                if (bestFields.size() > populationSize) {
-                                    BugField removed = bestFields.poll();
-                                    removed.removeZip();
-                                    BugField.delete(removed);
-                                }
-
-                                if (mutantSteps > totalBestField.steps) {
-                                    BugField.delete(totalBestField);
-                                    totalBestField = BugField.create(mutantField);
-                                    System.out.println(
-                                            String.format("Update nSize %d, mSize %d, i %d, j %d, mask %s, steps %d",
-                                                    nSize, mSize, i, j,
-                                                    Integer.toBinaryString(maskSize + mask).substring(1),
-                                                    totalBestField.steps
-                                            )
-                                    );
-                                    totalBestField.printToTmp();
-                                }
-                            }
-                        }
+    /**
+     * Chunk is {tilingIndex, from, to}: range of Gray code indexes of the tiling;
+     * chunks are listed in the order of sequential search.
+     */
+    static List<int[]> getHardCrossoverChunks(List<CrossoverTiling> tilings) {
+        List<int[]> chunks = new ArrayList<>();
+
+        for (int tilingIndex = 0; tilingIndex < tilings.size(); ++tilingIndex) {
+            int maskSize = tilings.get(tilingIndex).getMaskSize();
+
+            for (int from = 1; from < maskSize; from += HARD_CROSSOVER_MASKS_PER_CHUNK) {
+                chunks.add(new int[] { tilingIndex, from, Math.min(from + HARD_CROSSOVER_MASKS_PER_CHUNK, maskSize) });
+            }
+        }
+
+        return chunks;
+    }
+
+    static class HardCrossoverTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final BugField firstField, secondField;
+        final List<CrossoverTiling> tilings;
+        final List<int[]> chunks;
+        final int from, to;
+
+        final BugFieldBestSet bestFields;
+        final int[] totalBestSteps;
+
+        final SearchProgress progress;
+
+        HardCrossoverTask(BugField firstField, BugField secondField, List<CrossoverTiling> tilings, List<int[]> chunks,
+                          int from, int to, BugFieldBestSet bestFields, int[] totalBestSteps, SearchProgress progress) {
+            this.firstField = firstField;
+            this.secondField = secondField;
+            this.tilings = tilings;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+
+            this.bestFields = bestFields;
+            this.totalBestSteps = totalBestSteps;
+
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                evaluate();
+            } else {
+                int middle = (from + to) / 2;
+                invokeAll(
+                        new HardCrossoverTask(firstField, secondField, tilings, chunks, from, middle, bestFields, totalBestSteps, progress),
+                        new HardCrossoverTask(firstField, secondField, tilings, chunks, middle, to, bestFields, totalBestSteps, progress)
+                );
+            }
+        }
+
+        void evaluate() {
+            int[] childMasks = new int[firstField.n];
+            Random repairRandom = createRepairRandom();
+
+            BugFieldBestSet localBestFields = new BugFieldBestSet(bestFields.capacity);
+
+            for (int chunkIndex = from; chunkIndex < to; ++chunkIndex) {
+                if (progress != null && progress.isRestored(chunkIndex)) continue;
+
+                int[] chunk = chunks.get(chunkIndex);
+                CrossoverTiling tiling = tilings.get(chunk[0]);
+
+                long childHash = tiling.setChild(childMasks, firstField, secondField, chunk[1] - 1);
+
+                for (int index = chunk[1]; index < chunk[2]; ++index) {
+                    childHash = tiling.nextChild(childMasks, firstField, secondField, index, childHash);
+                    if (!tiling.isChild(index)) continue;
+
+                    BugField childField = createChild(childMasks, childHash, repairRandom);
+
+                    if (!localBestFields.canAdd(childField.steps)) {
+                        BugField.delete(childField);
+                        continue;
                     }
 
-                    for (int x = 0, bit = 0; x < nSize; ++x) {
-                        for (int y = 0; y < mSize; ++y, ++bit) {
-                            mutantWall[i + x][j + y] = baseWall[i + x][j + y];
-                        }
+                    long order = ((long) chunk[0] << Integer.SIZE) | index;
+                    BugField removed = localBestFields.add(childField, order);
+                    if (removed != null) {
+                        BugField.delete(removed);
+                    }
+
+                    if (removed != childField) {
+                        updateTotalBest(childField, tiling, index);
                     }
+                }
+            }
+
+            synchronized (bestFields) {
+                bestFields.addAll(localBestFields);
 
-                    System.out.println(
-                            String.format("nSize %d, mSize %d, i %d, j %d, steps %d",
-                                    nSize, mSize, i, j,
-                                    totalBestField.steps
-                            )
-                    );
+                if (progress != null) {
+                    progress.complete(from, to, bestFields);
                 }
             }
         }
 
-        BugField[] fields = new BugField[populationSize];
-        bestFields.fill(fields, populationSize);
-        return fields;
+        private void updateTotalBest(BugField childField, CrossoverTiling tiling, int index) {
+            synchronized (totalBestSteps) {
+                if (childField.steps <= totalBestSteps[0]) return;
+                totalBestSteps[0] = childField.steps;
+
+                System.out.println(
+                        String.format("Update %s, mask %s, steps %d",
+                                tiling, tiling.getMaskString(index),
+                                childField.steps
+                        )
+                );
+
+                childField.printToTmp();
+            }
+        }
     }
 
+    /**
+     * Evaluates all children of all tilings; if pool is not null, mask chunks are split between its workers.
+     * Result is the same for both modes, and for the search resumed from the progress of the stopped one.
+     * Parents stay owned by the caller, result contains their copies.
+     */
+    static BugField[] hardCrossover(BugField firstField, BugField secondField, int populationSize, int maxCount,
+                                    ForkJoinPool pool, SearchProgress progress) {
+        BugFieldBestSet bestFields = new BugFieldBestSet(populationSize);
+        int[] totalBestSteps = { Math.max(firstField.steps, secondField.steps) };
+
+        if (progress == null || progress.restoredMasks.length == 0) {
+            BugField removed = bestFields.add(BugField.create(firstField), -2);
+            if (removed != null) {
+                BugField.delete(removed);
+            }
+
+            removed = bestFields.add(BugField.create(secondField), -1);
+            if (removed != null) {
+                BugField.delete(removed);
+            }
+        } else {
+            // restored entries already contain the parents
+            restore(progress, bestFields, totalBestSteps);
+        }
+
+        List<CrossoverTiling> tilings = getHardCrossoverTilings(firstField, secondField, maxCount);
+        List<int[]> chunks = getHardCrossoverChunks(tilings);
+
+        // tilings one by one, so each one is reported after all its chunks are joined
+        for (int tilingIndex = 0, from = 0; tilingIndex < tilings.size(); ++tilingIndex) {
+            CrossoverTiling tiling = tilings.get(tilingIndex);
+            System.out.println(String.format("%s, pruned %d of %d", tiling, tiling.getPrunedCount(), tiling.getAllMasksCount()));
+
+            int to = from;
+            while (to < chunks.size() && chunks.get(to)[0] == tilingIndex) {
+                ++to;
+            }
+
+            if (pool == null) {
+                // chunk by chunk, so the progress is reported after each one
+                for (int chunkIndex = from; chunkIndex < to; ++chunkIndex) {
+                    new HardCrossoverTask(firstField, secondField, tilings, chunks, chunkIndex, chunkIndex + 1,
+                            bestFields, totalBestSteps, progress).evaluate();
+                }
+            } else if (from < to) {
+                pool.invoke(new HardCrossoverTask(firstField, secondField, tilings, chunks, from, to,
+                        bestFields, totalBestSteps, progress));
+            }
 
+            System.out.println(String.format("%s, steps %d", tiling, totalBestSteps[0]));
+            from = to;
+        }
+
+        return bestFields.toArray();
+    }
 }
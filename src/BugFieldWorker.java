@@ -0,0 +1,131 @@
+import java.io.*;
+import java.net.Socket;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Worker process of BugFieldCoordinator: runs islands, each one by its own thread and with its own connection.
+ * Each migrationInterval iterations island sends copies of its best fields to the coordinator
+ * and takes migrants of other islands (of all workers) instead of its worst fields.
+ * Population is not archived and best fields are written to tmp by the coordinator only,
+ * so any number of workers can run in the same directory.
+ */
+public class BugFieldWorker {
+
+    private final String host;
+    private final int port;
+
+    private final int populationSize;
+    private final int migrationInterval, migrantsCount;
+
+    /**
+     * Island leaves after so many iterations, 0 is to run until the process is stopped.
+     */
+    private final int iterationsCount;
+
+    BugFieldWorker(String host, int port, int populationSize,
+                   int migrationInterval, int migrantsCount, int iterationsCount) {
+        this.host = host;
+        this.port = port;
+
+        this.populationSize = populationSize;
+        this.migrationInterval = migrationInterval;
+        this.migrantsCount = Math.min(migrantsCount, populationSize);
+
+        this.iterationsCount = iterationsCount;
+    }
+
+    void run(int islandsCount, Random random) {
+        Thread[] threads = new Thread[islandsCount];
+
+        for (int island = 0; island < islandsCount; ++island) {
+            Random islandRandom = new Random(random.nextLong());
+
+            threads[island] = new Thread(() -> {
+                try {
+                    run(islandRandom);
+                } catch (IOException e) {
+                    System.out.println(Thread.currentThread().getName() + ": " + e);
+                }
+            }, "island-" + island);
+
+            threads[island].start();
+        }
+
+        for (Thread thread : threads) {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+    }
+
+    private void run(Random random) throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            BugFieldProtocol.writeHello(out, populationSize);
+            int workerId = BugFieldProtocol.readWelcome(in);
+
+            BugField[] fields = createPopulation(BugFieldProtocol.readBoards(in, steps -> true), random);
+
+            BugFieldGeneticAlgorithm algorithm = new BugFieldGeneticAlgorithm(
+                    populationSize, null, random, null, null, "worker " + workerId + ": "
+            );
+
+            algorithm.start(fields, 0);
+
+            BugField[] emigrants = new BugField[migrantsCount];
+            try {
+                for (int iteration = 0; iterationsCount == 0 || iteration < iterationsCount; ++iteration) {
+                    algorithm.iterate(0, iteration);
+
+                    if ((iteration + 1) % migrationInterval != 0) continue;
+
+                    algorithm.emigrate(emigrants);
+
+                    int worstSteps = algorithm.getWorstSteps();
+                    BugFieldProtocol.sendExchange(out, worstSteps, emigrants);
+
+                    List<BugField> immigrants = BugFieldProtocol.readBoards(in, steps -> steps > worstSteps);
+                    algorithm.immigrate(immigrants.toArray(new BugField[0]));
+                }
+
+                algorithm.emigrate(emigrants);
+
+                BugFieldProtocol.sendLeave(out, emigrants);
+            } finally {
+                for (BugField field : algorithm.finish(fields)) {
+                    BugField.delete(field);
+                }
+            }
+        }
+    }
+
+    /**
+     * Population is filled up by mutants of the received fields.
+     */
+    private BugField[] createPopulation(List<BugField> received, Random random) throws IOException {
+        if (received.isEmpty()) throw new IOException("Empty initial population");
+
+        BugField[] fields = new BugField[populationSize];
+        for (int i = 0; i < populationSize; ++i) {
+            fields[i] = (i < received.size()
+                    ? received.get(i)
+                    : BugFieldGeneticAlgorithm.mutation(received.get(i % received.size()), false, random)
+            );
+        }
+
+        for (int i = populationSize; i < received.size(); ++i) {
+            BugField.delete(received.get(i));
+        }
+
+        return fields;
+    }
+}
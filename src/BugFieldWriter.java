@@ -0,0 +1,271 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background persistence stage: search threads hand writes over through a bounded queue
+ * and never wait for the disk. Best field for tmp is coalesced: only the latest one
+ * is written once per interval and recorded in the score index. Writer thread is started explicitly by start,
+ * tasks offered before the start or after close are executed by the caller.
+ */
+public class BugFieldWriter implements Closeable {
+
+    enum Durability {
+        /**
+         * Written data is left in the os cache.
+         */
+        NONE,
+        /**
+         * File content is forced to the device after each write.
+         */
+        DATA,
+        /**
+         * File content and metadata are forced to the device after each write.
+         */
+        ALL
+    }
+
+    static final int QUEUE_CAPACITY = 64;
+
+    interface Task {
+        void run() throws IOException;
+    }
+
+    private static class BestField {
+        final int steps;
+        final long hash;
+        final int[] masks;
+
+        BestField(BugField field) {
+            this.steps = field.steps;
+            this.hash = field.hash;
+            this.masks = field.masks.clone();
+        }
+    }
+
+    private final String tmpDirectoryName;
+    private BugFieldScoreIndex scoreIndex;
+    private final long interval;
+    private final Durability durability;
+
+    private final BlockingQueue<Task> tasks;
+
+    private BestField pendingBest;
+    private int offeredBestSteps;
+
+    private Thread thread;
+
+    /**
+     * Writer is closed until it's started, and again after close.
+     */
+    private volatile boolean closed;
+    private final Object closeLock = new Object();
+
+    BugFieldWriter(String tmpDirectoryName, long interval, Durability durability) {
+        this.tmpDirectoryName = tmpDirectoryName;
+        this.interval = interval;
+        this.durability = durability;
+
+        this.tasks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        this.pendingBest = null;
+        this.offeredBestSteps = -1;
+
+        this.closed = true;
+    }
+
+    /**
+     * Starts the writer thread, best fields offered before are written too.
+     */
+    void start(BugFieldScoreIndex scoreIndex) {
+        synchronized (closeLock) {
+            if (thread != null) throw new IllegalStateException("Writer is already started");
+
+            this.scoreIndex = scoreIndex;
+
+            this.thread = new Thread(this::run, "bug-field-writer");
+            thread.setDaemon(true);
+
+            this.closed = false;
+            thread.start();
+        }
+    }
+
+    long getInterval() {
+        return interval;
+    }
+
+    Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * @return false if queue is full, caller should keep the data and try later
+     */
+    boolean offer(Task task) {
+        if (closed) {
+            execute(task);
+            return true;
+        }
+
+        if (!tasks.offer(task)) return false;
+
+        if (closed && tasks.remove(task)) {
+            execute(task);
+        }
+
+        return true;
+    }
+
+    /**
+     * Waits for the free place in the queue, so it's only for rare forced writes.
+     */
+    void put(Task task) {
+        if (closed) {
+            execute(task);
+            return;
+        }
+
+        try {
+            tasks.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            execute(task);
+            return;
+        }
+
+        if (closed && tasks.remove(task)) {
+            execute(task);
+        }
+    }
+
+    /**
+     * Waits until all tasks offered before are written.
+     */
+    void drain() {
+        if (closed) {
+            executeRemaining();
+            return;
+        }
+
+        CountDownLatch latch = new CountDownLatch(1);
+        put(latch::countDown);
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Remembers field to be written to tmp, if it's better than all offered before.
+     */
+    synchronized void offerBest(BugField field) {
+        if (field.steps <= offeredBestSteps) return;
+
+        this.offeredBestSteps = field.steps;
+        this.pendingBest = new BestField(field);
+
+        BugField.metrics.bestUpdated(field.steps);
+    }
+
+    private void run() {
+        long lastBestTime = System.currentTimeMillis();
+
+        while (!closed || !tasks.isEmpty()) {
+            long waitTime = Math.max(1, interval - (System.currentTimeMillis() - lastBestTime));
+
+            Task task = null;
+            try {
+                task = tasks.poll(waitTime, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ignored) {
+            }
+
+            if (task != null) {
+                execute(task);
+            }
+
+            if (System.currentTimeMillis() - lastBestTime >= interval) {
+                writeBest();
+                lastBestTime = System.currentTimeMillis();
+            }
+        }
+
+        writeBest();
+    }
+
+    private void execute(Task task) {
+        long startTime = System.nanoTime();
+
+        try {
+            task.run();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        BugField.metrics.addTime(BugSearchMetrics.Phase.PERSISTENCE, startTime);
+    }
+
+    private void writeBest() {
+        BestField best;
+        synchronized (this) {
+            best = pendingBest;
+            pendingBest = null;
+        }
+
+        if (best == null) return;
+
+        long startTime = System.nanoTime();
+
+        try {
+            String fileName = tmpDirectoryName + "/" + BugField.getFileName(best.steps, best.hash) + ".zip";
+            BugField.printToZip(fileName, best.masks, durability != Durability.NONE);
+
+            if (scoreIndex.add(best.steps, best.hash, fileName)) {
+                scoreIndex.write(durability != Durability.NONE);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        BugField.metrics.addTime(BugSearchMetrics.Phase.PERSISTENCE, startTime);
+    }
+
+    /**
+     * Writes everything offered before, later tasks are executed by their callers.
+     */
+    @Override
+    public void close() {
+        synchronized (closeLock) {
+            if (closed || thread == null) return;
+            closed = true;
+        }
+
+        // wakes the writer thread up
+        tasks.offer(() -> { });
+
+        executeRemaining();
+        writeBest();
+    }
+
+    /**
+     * Waits for the stopped writer thread and executes tasks, which were put after it.
+     */
+    private void executeRemaining() {
+        try {
+            if (thread != null) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Task task; (task = tasks.poll()) != null; ) {
+            execute(task);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.Arrays;
+
+/**
+ * Open addressing set of 64-bit board fingerprints: linear probing, removal by backward shift
+ * (no tombstones). Add, contains and remove allocate nothing until the set outgrows its capacity.
+ */
+public class BugFingerprintSet {
+
+    private static final long EMPTY_KEY = 0;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private int mask;
+    private int size;
+
+    /**
+     * EMPTY_KEY marks free slots, so it's stored separately.
+     */
+    private boolean hasEmptyKey;
+
+    BugFingerprintSet(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2 * expectedSize) {
+            capacity <<= 1;
+        }
+
+        this.keys = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    private int getIndex(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private int find(long key) {
+        for (int index = getIndex(key); ; index = (index + 1) & mask) {
+            long slotKey = keys[index];
+            if (slotKey == key) return index;
+            if (slotKey == EMPTY_KEY) return -1;
+        }
+    }
+
+    boolean contains(long key) {
+        if (key == EMPTY_KEY) return hasEmptyKey;
+        return find(key) >= 0;
+    }
+
+    /**
+     * @return true if key was not contained
+     */
+    boolean add(long key) {
+        if (key == EMPTY_KEY) {
+            if (hasEmptyKey) return false;
+
+            hasEmptyKey = true;
+            ++size;
+            return true;
+        }
+
+        int index = getIndex(key);
+        for (long slotKey; (slotKey = keys[index]) != EMPTY_KEY; index = (index + 1) & mask) {
+            if (slotKey == key) return false;
+        }
+
+        keys[index] = key;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+
+        return true;
+    }
+
+    /**
+     * @return true if key was contained
+     */
+    boolean remove(long key) {
+        if (key == EMPTY_KEY) {
+            if (!hasEmptyKey) return false;
+
+            hasEmptyKey = false;
+            --size;
+            return true;
+        }
+
+        int index = find(key);
+        if (index < 0) return false;
+
+        // shift back following keys of the cluster, which can't be found anymore through the freed slot
+        for (int next = (index + 1) & mask; keys[next] != EMPTY_KEY; next = (next + 1) & mask) {
+            int ideal = getIndex(keys[next]);
+            if (((next - ideal) & mask) >= ((next - index) & mask)) {
+                keys[index] = keys[next];
+                index = next;
+            }
+        }
+
+        keys[index] = EMPTY_KEY;
+        --size;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(keys, EMPTY_KEY);
+        hasEmptyKey = false;
+        size = 0;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+
+        this.keys = new long[oldKeys.length * 2];
+        this.mask = keys.length - 1;
+
+        for (long key : oldKeys) {
+            if (key == EMPTY_KEY) continue;
+
+            int index = getIndex(key);
+            while (keys[index] != EMPTY_KEY) {
+                index = (index + 1) & mask;
+            }
+
+            keys[index] = key;
+        }
+    }
+}
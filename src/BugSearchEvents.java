@@ -0,0 +1,106 @@
+import jdk.jfr.*;
+
+/**
+ * Flight recorder events of the search. Disabled events are only allocated (and the allocation is usually
+ * removed by JIT), so they can stay in the code: java -XX:StartFlightRecording=settings=profile ...
+ */
+public class BugSearchEvents {
+
+    /**
+     * Evaluations with more steps are recorded by SlowEvaluationEvent.
+     */
+    static final int SLOW_EVALUATION_STEPS = Integer.getInteger("jfr.slowSteps", 100000);
+
+    @Name("bug.Iteration")
+    @Label("GA Iteration")
+    @Category({ "Bug", "Search" })
+    @Description("One iteration of the genetic algorithm process")
+    static class IterationEvent extends Event {
+        @Label("Generation")
+        int generation;
+
+        @Label("Iteration")
+        int iteration;
+
+        @Label("Best Steps")
+        int bestSteps;
+
+        @Label("Worst Steps")
+        int worstSteps;
+
+        @Label("Best Updated")
+        boolean updated;
+    }
+
+    @Name("bug.ChildGenerating")
+    @Label("Child Generating")
+    @Category({ "Bug", "Search" })
+    static class ChildGeneratingEvent extends Event {
+        @Label("Children")
+        int children;
+
+        @Label("Best Child Steps")
+        int bestChildSteps;
+    }
+
+    @Name("bug.Selection")
+    @Label("Selection")
+    @Category({ "Bug", "Search" })
+    static class SelectionEvent extends Event {
+        @Label("Candidates")
+        int candidates;
+
+        @Label("Selected")
+        @Description("Selected fields with distinct steps, the rest of the population is filled by others")
+        int selected;
+
+        @Label("Best Steps")
+        int bestSteps;
+    }
+
+    @Name("bug.HardMutationsWindow")
+    @Label("Hard Mutations Window")
+    @Category({ "Bug", "Search" })
+    static class HardMutationsWindowEvent extends Event {
+        @Label("Window Index")
+        int windowIndex;
+
+        @Label("Row")
+        int i;
+
+        @Label("Column")
+        int j;
+
+        @Label("Rows")
+        int nSize;
+
+        @Label("Columns")
+        int mSize;
+
+        @Label("Masks")
+        int masks;
+
+        @Label("Added")
+        @Description("Mutants, which got into the local best fields")
+        int added;
+
+        @Label("Best Steps")
+        int bestSteps;
+    }
+
+    @Name("bug.SlowEvaluation")
+    @Label("Slow Evaluation")
+    @Category({ "Bug", "Evaluation" })
+    @Description("Evaluation of the field with more steps than jfr.slowSteps")
+    static class SlowEvaluationEvent extends Event {
+        @Label("Steps")
+        int steps;
+
+        @Label("Simulated Steps")
+        @Description("Steps really walked, resumed walk starts from the checkpoint")
+        int simulatedSteps;
+
+        @Label("Hash")
+        long hash;
+    }
+}
@@ -0,0 +1,241 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the search, cheap enough to be always on: search threads only increment LongAdders,
+ * sums and rates are computed when they are read.
+ */
+public class BugSearchMetrics implements BugSearchMetricsMBean {
+
+    static final String OBJECT_NAME = "bug:type=SearchMetrics";
+
+    static final int TRAJECTORY_CAPACITY = 1024;
+
+    enum Phase {
+        HARD_MUTATIONS, CHILD_GENERATING, SELECTION, PERSISTENCE
+    }
+
+    /**
+     * Per second rate of the counter over the interval since the previous recalculation.
+     */
+    private static class Rate {
+        static final long MIN_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+        private final LongAdder counter;
+
+        private long lastTime, lastValue;
+        private double rate;
+
+        Rate(LongAdder counter) {
+            this.counter = counter;
+            this.lastTime = System.nanoTime();
+        }
+
+        synchronized double get() {
+            long time = System.nanoTime();
+            if (time - lastTime >= MIN_INTERVAL) {
+                long value = counter.sum();
+
+                this.rate = (double) (value - lastValue) * TimeUnit.SECONDS.toNanos(1) / (time - lastTime);
+                this.lastTime = time;
+                this.lastValue = value;
+            }
+
+            return rate;
+        }
+    }
+
+    private final long startTime;
+
+    private final LongAdder evaluations, simulatedSteps, disconnected, footprintSkips;
+    private final LongAdder dedupChecks, dedupHits;
+    private final LongAdder[] phaseNanos;
+
+    private final Rate evaluationsRate, simulatedStepsRate;
+
+    private int bestSteps;
+    private final ArrayDeque<long[]> bestTrajectory;
+
+    BugSearchMetrics() {
+        this.startTime = System.currentTimeMillis();
+
+        this.evaluations = new LongAdder();
+        this.simulatedSteps = new LongAdder();
+        this.disconnected = new LongAdder();
+        this.footprintSkips = new LongAdder();
+
+        this.dedupChecks = new LongAdder();
+        this.dedupHits = new LongAdder();
+
+        this.phaseNanos = new LongAdder[Phase.values().length];
+        for (int i = 0; i < phaseNanos.length; ++i) {
+            phaseNanos[i] = new LongAdder();
+        }
+
+        this.evaluationsRate = new Rate(evaluations);
+        this.simulatedStepsRate = new Rate(simulatedSteps);
+
+        this.bestSteps = -1;
+        this.bestTrajectory = new ArrayDeque<>();
+    }
+
+    void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.out.println("Metrics are not registered: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param steps steps of the field, -1 for disconnected board
+     * @param simulated steps, which were really walked
+     */
+    void evaluated(int steps, int simulated) {
+        evaluations.increment();
+
+        if (steps < 0) {
+            disconnected.increment();
+        } else {
+            simulatedSteps.add(simulated);
+        }
+    }
+
+    void footprintSkipped() {
+        footprintSkips.increment();
+    }
+
+    void dedupChecked(boolean duplicate) {
+        dedupChecks.increment();
+        if (duplicate) {
+            dedupHits.increment();
+        }
+    }
+
+    void addTime(Phase phase, long startNanos) {
+        phaseNanos[phase.ordinal()].add(System.nanoTime() - startNanos);
+    }
+
+    synchronized void bestUpdated(int steps) {
+        if (steps <= bestSteps) return;
+        this.bestSteps = steps;
+
+        if (bestTrajectory.size() == TRAJECTORY_CAPACITY) {
+            bestTrajectory.pollFirst();
+        }
+
+        bestTrajectory.addLast(new long[] { System.currentTimeMillis() - startTime, steps });
+    }
+
+    @Override
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    @Override
+    public double getEvaluationsPerSecond() {
+        return evaluationsRate.get();
+    }
+
+    @Override
+    public long getSimulatedSteps() {
+        return simulatedSteps.sum();
+    }
+
+    @Override
+    public double getSimulatedStepsPerSecond() {
+        return simulatedStepsRate.get();
+    }
+
+    @Override
+    public long getDisconnected() {
+        return disconnected.sum();
+    }
+
+    @Override
+    public double getDisconnectedRate() {
+        long evaluationsCount = getEvaluations();
+        return (evaluationsCount == 0 ? 0 : (double) getDisconnected() / evaluationsCount);
+    }
+
+    @Override
+    public long getFootprintSkips() {
+        return footprintSkips.sum();
+    }
+
+    @Override
+    public double getPoolHitRate() {
+        return BugField.pool.getHitRate();
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        return (BugField.stepsCache == null ? 0 : BugField.stepsCache.getHitRate());
+    }
+
+    @Override
+    public long getDedupChecks() {
+        return dedupChecks.sum();
+    }
+
+    @Override
+    public double getDedupHitRate() {
+        long checksCount = getDedupChecks();
+        return (checksCount == 0 ? 0 : (double) dedupHits.sum() / checksCount);
+    }
+
+    @Override
+    public synchronized int getBestSteps() {
+        return bestSteps;
+    }
+
+    @Override
+    public synchronized String[] getBestTrajectory() {
+        String[] trajectory = new String[bestTrajectory.size()];
+
+        int index = 0;
+        for (long[] point : bestTrajectory) {
+            trajectory[index++] = String.format("%.3f %d", point[0] / 1000.0, point[1]);
+        }
+
+        return trajectory;
+    }
+
+    private long getPhaseMillis(Phase phase) {
+        return TimeUnit.NANOSECONDS.toMillis(phaseNanos[phase.ordinal()].sum());
+    }
+
+    @Override
+    public long getHardMutationsMillis() {
+        return getPhaseMillis(Phase.HARD_MUTATIONS);
+    }
+
+    @Override
+    public long getChildGeneratingMillis() {
+        return getPhaseMillis(Phase.CHILD_GENERATING);
+    }
+
+    @Override
+    public long getSelectionMillis() {
+        return getPhaseMillis(Phase.SELECTION);
+    }
+
+    @Override
+    public long getPersistenceMillis() {
+        return getPhaseMillis(Phase.PERSISTENCE);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Metrics evaluations %d (%.0f/s), steps %d (%.0f/s), disconnected %.3f, footprint skips %d, " +
+                        "dedup %.3f, best %d, ms: hard mutations %d, children %d, selection %d, persistence %d",
+                getEvaluations(), getEvaluationsPerSecond(), getSimulatedSteps(), getSimulatedStepsPerSecond(),
+                getDisconnectedRate(), getFootprintSkips(), getDedupHitRate(), getBestSteps(),
+                getHardMutationsMillis(), getChildGeneratingMillis(), getSelectionMillis(), getPersistenceMillis()
+        );
+    }
+}
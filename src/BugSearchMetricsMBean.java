@@ -0,0 +1,52 @@
+/**
+ * Search metrics for JMX clients, counters are totals since the start,
+ * rates are per second over the last second (at least) between reads.
+ */
+public interface BugSearchMetricsMBean {
+
+    long getEvaluations();
+
+    double getEvaluationsPerSecond();
+
+    /**
+     * Bug steps really walked: resumed walks count only the steps after the checkpoint.
+     */
+    long getSimulatedSteps();
+
+    double getSimulatedStepsPerSecond();
+
+    /**
+     * Evaluations of boards without the path to the exit.
+     */
+    long getDisconnected();
+
+    double getDisconnectedRate();
+
+    /**
+     * Mutations, which didn't touch the parent footprint, so they took the parent steps without the walk.
+     */
+    long getFootprintSkips();
+
+    double getPoolHitRate();
+
+    double getCacheHitRate();
+
+    long getDedupChecks();
+
+    double getDedupHitRate();
+
+    int getBestSteps();
+
+    /**
+     * Best steps updates as "seconds steps", the oldest first.
+     */
+    String[] getBestTrajectory();
+
+    long getHardMutationsMillis();
+
+    long getChildGeneratingMillis();
+
+    long getSelectionMillis();
+
+    long getPersistenceMillis();
+}
@@ -0,0 +1,182 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded map from board to its steps (and footprint), keyed by 64-bit board hash.
+ * Cache is set-associative: each set has WAYS slots replaced by CLOCK, sets are guarded by striped locks.
+ * Stored board is compared on every key match, so hash collisions can't give wrong steps.
+ */
+public class BugStepsCache {
+
+    static final int WAYS = 4;
+    static final int LOCKS_COUNT = 64;
+
+    private final int rows;
+    private final int setsMask;
+
+    private final long[] keys;
+    private final int[] steps;
+    private final int[] boards, footprints;
+    private final boolean[] used, referenced, hasFootprints;
+    private final int[] hands;
+
+    private final Object[] locks;
+
+    private final LongAdder hits, misses, collisions;
+
+    /**
+     * @param capacity entries count, rounded up to the power of two
+     * @param rows rows of each board
+     */
+    BugStepsCache(int capacity, int rows) {
+        int setsCount = 1;
+        while (setsCount * WAYS < capacity) {
+            setsCount <<= 1;
+        }
+
+        int slotsCount = setsCount * WAYS;
+
+        this.rows = rows;
+        this.setsMask = setsCount - 1;
+
+        this.keys = new long[slotsCount];
+        this.steps = new int[slotsCount];
+        this.boards = new int[slotsCount * rows];
+        this.footprints = new int[slotsCount * rows];
+        this.used = new boolean[slotsCount];
+        this.referenced = new boolean[slotsCount];
+        this.hasFootprints = new boolean[slotsCount];
+        this.hands = new int[setsCount];
+
+        this.locks = new Object[LOCKS_COUNT];
+        for (int i = 0; i < LOCKS_COUNT; ++i) {
+            locks[i] = new Object();
+        }
+
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.collisions = new LongAdder();
+    }
+
+    private int getSet(long key) {
+        return (int) (key ^ (key >>> 32)) & setsMask;
+    }
+
+    private Object getLock(int set) {
+        return locks[set & (LOCKS_COUNT - 1)];
+    }
+
+    private boolean equalsBoard(int slot, int[] masks) {
+        for (int i = 0, offset = slot * rows; i < rows; ++i, ++offset) {
+            if (boards[offset] != masks[i]) return false;
+        }
+
+        return true;
+    }
+
+    private int find(int set, long key, int[] masks) {
+        for (int way = 0, slot = set * WAYS; way < WAYS; ++way, ++slot) {
+            if (!used[slot] || keys[slot] != key) continue;
+
+            if (equalsBoard(slot, masks)) return slot;
+            collisions.increment();
+        }
+
+        return -1;
+    }
+
+    /**
+     * Fills steps and footprint of the field, if its board is cached.
+     */
+    boolean load(BugField field, long key) {
+        int set = getSet(key);
+
+        synchronized (getLock(set)) {
+            int slot = find(set, key, field.masks);
+            if (slot < 0) {
+                misses.increment();
+                return false;
+            }
+
+            referenced[slot] = true;
+
+            field.steps = steps[slot];
+            field.hasFootprint = hasFootprints[slot];
+            if (field.hasFootprint) {
+                if (field.footprint == null) {
+                    field.footprint = new int[rows];
+                }
+
+                System.arraycopy(footprints, slot * rows, field.footprint, 0, rows);
+            }
+        }
+
+        hits.increment();
+        return true;
+    }
+
+    void store(BugField field, long key) {
+        int set = getSet(key);
+
+        synchronized (getLock(set)) {
+            // board could be stored by other thread meanwhile
+            if (find(set, key, field.masks) >= 0) return;
+
+            int slot = getVictim(set);
+
+            used[slot] = true;
+            referenced[slot] = false;
+
+            keys[slot] = key;
+            steps[slot] = field.steps;
+            System.arraycopy(field.masks, 0, boards, slot * rows, rows);
+
+            hasFootprints[slot] = field.hasFootprint;
+            if (field.hasFootprint) {
+                System.arraycopy(field.footprint, 0, footprints, slot * rows, rows);
+            }
+        }
+    }
+
+    /**
+     * CLOCK: hand skips (and clears) referenced slots of the set.
+     */
+    private int getVictim(int set) {
+        int start = set * WAYS;
+
+        for (int way = 0; way < WAYS; ++way) {
+            if (!used[start + way]) return start + way;
+        }
+
+        while (true) {
+            int slot = start + hands[set];
+            hands[set] = (hands[set] + 1) % WAYS;
+
+            if (!referenced[slot]) return slot;
+            referenced[slot] = false;
+        }
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getCollisions() {
+        return collisions.sum();
+    }
+
+    double getHitRate() {
+        long hitsCount = getHits(), total = hitsCount + getMisses();
+        return (total == 0 ? 0 : (double) hitsCount / total);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Cache hits %d, misses %d, hit rate %.3f, collisions %d, capacity %d",
+                getHits(), getMisses(), getHitRate(), getCollisions(), keys.length
+        );
+    }
+}
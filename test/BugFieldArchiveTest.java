@@ -0,0 +1,69 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Board record of the archive must stay live while any field object with the board is in the population.
+ * Writer is not started, so each flush is written at once by the caller.
+ */
+class BugFieldArchiveTest {
+
+    @TempDir
+    Path directory;
+
+    private BugFieldArchive open() throws IOException {
+        BugFieldWriter writer = new BugFieldWriter(directory.toString(), 0, BugFieldWriter.Durability.NONE);
+        return BugFieldArchive.open(directory.resolve("population.archive").toString(), BugField.SITE_N, writer);
+    }
+
+    @Test
+    void sameBoardStaysLiveUntilLastFieldIsRemoved() throws IOException {
+        BugField first = BugField.create(BugTestBoards.load("best-1"));
+        BugField second = BugField.getInstance(first);
+
+        try (BugFieldArchive archive = open()) {
+            archive.add(first, 0);
+            archive.add(second, 0);
+            archive.flush(true);
+
+            archive.remove(first);
+            archive.flush(true);
+
+            List<BugField> live = archive.readLive();
+            assertEquals(1, live.size());
+            assertEquals(first.hash, live.get(0).hash);
+        }
+
+        // the record is live in the file too
+        try (BugFieldArchive archive = open()) {
+            assertEquals(1, archive.readLive().size());
+
+            archive.remove(second);
+            archive.flush(true);
+
+            assertEquals(0, archive.readLive().size());
+            assertEquals(0, archive.getLiveCount());
+        }
+    }
+
+    @Test
+    void repeatedAddOfFieldIsRemovedOnce() throws IOException {
+        BugField field = BugField.create(BugTestBoards.load("best-2"));
+
+        try (BugFieldArchive archive = open()) {
+            archive.add(field, 0);
+            archive.add(field, 1);
+            archive.flush(true);
+
+            archive.remove(field);
+            archive.flush(true);
+
+            assertEquals(0, archive.readLive().size());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Each child has its own random stream, so the population must not depend on the workers count;
+ * selection must keep the full sorted population for any steps of the children.
+ */
+class BugFieldGeneticAlgorithmTest {
+
+    static final int POPULATION_SIZE = 10;
+    static final int ITERATIONS = 30;
+
+    private static BugField[] createPopulation(long seed) {
+        Random random = new Random(seed);
+
+        BugField[] fields = new BugField[POPULATION_SIZE];
+        for (int i = 0; i < fields.length; ++i) {
+            fields[i] = BugField.create(BugTestBoards.random(random, 0.2));
+        }
+
+        return fields;
+    }
+
+    /**
+     * @return population after the iterations, each iteration appends its best steps to the history
+     */
+    private static BugField[] run(ForkJoinPool pool, long seed, StringBuilder history) throws IOException {
+        BugFieldGeneticAlgorithm algo = new BugFieldGeneticAlgorithm(
+                POPULATION_SIZE, pool, new Random(seed), null, null, "test "
+        );
+
+        BugField[] fields = createPopulation(seed);
+        algo.start(fields, 0);
+
+        for (int iteration = 0; iteration < ITERATIONS; ++iteration) {
+            algo.iterate(0, iteration);
+            history.append(algo.getBestSteps()).append(' ');
+        }
+
+        return algo.finish(fields);
+    }
+
+    @Test
+    void parallelChildGeneratingMatchesSequential() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            for (long seed = 1; seed <= 3; ++seed) {
+                StringBuilder sequentialHistory = new StringBuilder(), parallelHistory = new StringBuilder();
+
+                BugField[] sequential = run(null, seed, sequentialHistory);
+                BugField[] parallel = run(pool, seed, parallelHistory);
+
+                assertEquals(sequentialHistory.toString(), parallelHistory.toString());
+
+                for (int i = 0; i < POPULATION_SIZE; ++i) {
+                    assertEquals(sequential[i].steps, parallel[i].steps, "steps of " + i);
+                    assertEquals(sequential[i].hash, parallel[i].hash, "hash of " + i);
+                    assertArrayEquals(sequential[i].masks, parallel[i].masks, "masks of " + i);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Inner part is all walls, so almost all children have no path and there are fewer distinct steps than fields.
+     */
+    @Test
+    void selectionFillsPopulationWithFewDistinctSteps() throws IOException {
+        int n = BugField.SITE_N, m = BugField.SITE_M;
+
+        BugField[] fields = new BugField[POPULATION_SIZE];
+        for (int i = 0; i < fields.length; ++i) {
+            boolean[][] wall = new boolean[n][m];
+            for (boolean[] row : wall) {
+                Arrays.fill(row, true);
+            }
+
+            wall[1][1] = false;
+            wall[n - 2][m - 2] = false;
+
+            fields[i] = BugField.create(wall);
+        }
+
+        BugFieldGeneticAlgorithm algo = new BugFieldGeneticAlgorithm(
+                POPULATION_SIZE, null, new Random(1), null, null, "test "
+        );
+        algo.start(fields, 0);
+
+        for (int iteration = 0; iteration < ITERATIONS; ++iteration) {
+            algo.iterate(0, iteration);
+        }
+
+        algo.finish(fields);
+
+        for (int i = 0; i < POPULATION_SIZE; ++i) {
+            assertNotNull(fields[i]);
+            if (i > 0) {
+                assertTrue(fields[i - 1].steps >= fields[i].steps, "population is sorted");
+            }
+        }
+    }
+}
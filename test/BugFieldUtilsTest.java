@@ -0,0 +1,273 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Searches split between workers or resumed from the progress must give the same fields as the sequential ones,
+ * and pruned Gray code enumeration of hardCrossover must give the same best set as the plain one.
+ */
+class BugFieldUtilsTest {
+
+    static final int POPULATION_SIZE = 20;
+    static final int MUTATIONS_MAX_SIZE = 4;
+    /**
+     * Hard mutations are the longest, so they are checked for the first parents only.
+     */
+    static final int MUTATIONS_BASE_FIELDS = 2;
+    static final int[] CROSSOVER_MAX_COUNTS = { 6, 10 };
+
+    private static ForkJoinPool pool;
+
+    /**
+     * More workers than processors, so tasks are really interleaved.
+     */
+    @BeforeAll
+    static void createPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void shutdownPool() {
+        pool.shutdown();
+    }
+
+    private static List<BugField> getParents() {
+        List<BugField> fields = new ArrayList<>();
+        for (String name : new String[] { "random-20", "best-1", "best-2", "best-3" }) {
+            fields.add(BugField.create(BugTestBoards.load(name)));
+        }
+
+        return fields;
+    }
+
+    private static void assertSameFields(BugField[] expected, BugField[] actual) {
+        assertEquals(expected.length, actual.length);
+
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(expected[i].steps, actual[i].steps, "steps of " + i);
+            assertEquals(expected[i].hash, actual[i].hash, "hash of " + i);
+            assertArrayEquals(expected[i].masks, actual[i].masks, "masks of " + i);
+        }
+    }
+
+    /**
+     * Progress, which keeps the snapshot after the given count of completed tasks.
+     */
+    private static class SnapshotListener implements BugFieldUtils.SearchProgress.Listener {
+        final int snapshotCount;
+        int count;
+
+        BitSet completedParts;
+        int[][] masks;
+        long[] orders;
+
+        SnapshotListener(int snapshotCount) {
+            this.snapshotCount = snapshotCount;
+        }
+
+        @Override
+        public void completed(BitSet completedParts, List<BugFieldUtils.BugFieldBestSet.Entry> bestEntries) {
+            if (++count != snapshotCount) return;
+
+            this.completedParts = (BitSet) completedParts.clone();
+            this.masks = new int[bestEntries.size()][];
+            this.orders = new long[bestEntries.size()];
+            for (int i = 0; i < masks.length; ++i) {
+                masks[i] = bestEntries.get(i).field.masks.clone();
+                orders[i] = bestEntries.get(i).order;
+            }
+        }
+
+        BugFieldUtils.SearchProgress restore() {
+            assertNotNull(completedParts, "search is shorter than the snapshot");
+            return new BugFieldUtils.SearchProgress(completedParts, masks, orders, null);
+        }
+    }
+
+    @Test
+    void parallelHardMutationsMatchSequential() throws IOException {
+        for (BugField baseField : getParents().subList(0, MUTATIONS_BASE_FIELDS)) {
+            BugField[] sequential = BugFieldUtils.hardMutations(baseField, POPULATION_SIZE, MUTATIONS_MAX_SIZE, null);
+            BugField[] parallel = BugFieldUtils.hardMutations(baseField, POPULATION_SIZE, MUTATIONS_MAX_SIZE, pool);
+
+            assertSameFields(sequential, parallel);
+        }
+    }
+
+    @Test
+    void resumedHardMutationsMatchSequential() throws IOException {
+        for (BugField baseField : getParents().subList(0, MUTATIONS_BASE_FIELDS)) {
+            BugField[] sequential = BugFieldUtils.hardMutations(baseField, POPULATION_SIZE, MUTATIONS_MAX_SIZE, null);
+
+            SnapshotListener listener = new SnapshotListener(50);
+            BugField[] full = BugFieldUtils.hardMutations(baseField, POPULATION_SIZE, MUTATIONS_MAX_SIZE, pool,
+                    new BugFieldUtils.SearchProgress(listener));
+            BugField[] resumed = BugFieldUtils.hardMutations(baseField, POPULATION_SIZE, MUTATIONS_MAX_SIZE, pool,
+                    listener.restore());
+
+            assertSameFields(sequential, full);
+            assertSameFields(sequential, resumed);
+        }
+    }
+
+    @Test
+    void parallelHardCrossoverMatchesSequential() {
+        List<BugField> parents = getParents();
+        for (int p = 0; p + 1 < parents.size(); ++p) {
+            BugField first = parents.get(p), second = parents.get(p + 1);
+
+            for (int maxCount : CROSSOVER_MAX_COUNTS) {
+                BugField[] sequential = BugFieldUtils.hardCrossover(first, second, POPULATION_SIZE, maxCount, null, null);
+                BugField[] parallel = BugFieldUtils.hardCrossover(first, second, POPULATION_SIZE, maxCount, pool, null);
+
+                assertSameFields(sequential, parallel);
+            }
+        }
+    }
+
+    @Test
+    void resumedHardCrossoverMatchesSequential() {
+        List<BugField> parents = getParents();
+        for (int p = 0; p + 1 < parents.size(); ++p) {
+            BugField first = parents.get(p), second = parents.get(p + 1);
+
+            int maxCount = CROSSOVER_MAX_COUNTS[CROSSOVER_MAX_COUNTS.length - 1];
+            BugField[] sequential = BugFieldUtils.hardCrossover(first, second, POPULATION_SIZE, maxCount, null, null);
+
+            SnapshotListener listener = new SnapshotListener(10);
+            BugField[] full = BugFieldUtils.hardCrossover(first, second, POPULATION_SIZE, maxCount, pool,
+                    new BugFieldUtils.SearchProgress(listener));
+            BugField[] resumed = BugFieldUtils.hardCrossover(first, second, POPULATION_SIZE, maxCount, pool,
+                    listener.restore());
+
+            assertSameFields(sequential, full);
+            assertSameFields(sequential, resumed);
+        }
+    }
+
+    /**
+     * Reference hardCrossover: all masks of all blocks in binary order, children equal to parents are deduplicated by the set.
+     */
+    private static BugField[] plainHardCrossover(BugField firstField, BugField secondField, int populationSize, int maxCount) {
+        BugFieldUtils.BugFieldBestSet bestFields = new BugFieldUtils.BugFieldBestSet(populationSize);
+        bestFields.add(BugField.create(firstField), -2);
+        bestFields.add(BugField.create(secondField), -1);
+
+        List<BugFieldUtils.CrossoverTiling> tilings = BugFieldUtils.getHardCrossoverTilings(firstField, secondField, maxCount);
+        for (int tilingIndex = 0; tilingIndex < tilings.size(); ++tilingIndex) {
+            BugFieldUtils.CrossoverTiling tiling = tilings.get(tilingIndex);
+
+            for (int mask = 1; mask < (1 << tiling.size) - 1; ++mask) {
+                int[] childMasks = firstField.masks.clone();
+                for (int block = 0; block < tiling.size; ++block) {
+                    if (!BugFieldUtils.checkBit(mask, block)) continue;
+
+                    int columns = tiling.blockColumns[block];
+                    for (int x = tiling.blockRows[block]; x < tiling.blockRows[block] + tiling.nSize && x < firstField.n - 1; ++x) {
+                        childMasks[x] = (childMasks[x] & ~columns) | (secondField.masks[x] & columns);
+                    }
+                }
+
+                bestFields.add(BugField.create(childMasks), ((long) tilingIndex << Integer.SIZE) | mask);
+            }
+        }
+
+        return bestFields.toArray();
+    }
+
+    @Test
+    void prunedGrayCrossoverMatchesPlainEnumeration() {
+        List<BugField> parents = getParents();
+        for (int p = 0; p + 1 < parents.size(); ++p) {
+            BugField first = parents.get(p), second = parents.get(p + 1);
+
+            for (int maxCount : CROSSOVER_MAX_COUNTS) {
+                BugField[] plain = plainHardCrossover(first, second, POPULATION_SIZE, maxCount);
+                BugField[] gray = BugFieldUtils.hardCrossover(first, second, POPULATION_SIZE, maxCount, null, null);
+
+                assertEquals(plain.length, gray.length);
+
+                // order of enumeration differs, so only fields with the same steps as the worst one may differ
+                int worstSteps = plain[plain.length - 1].steps;
+                for (int i = 0; i < plain.length; ++i) {
+                    assertEquals(plain[i].steps, gray[i].steps, "steps of " + i);
+                    if (plain[i].steps > worstSteps) {
+                        assertEquals(plain[i].hash, gray[i].hash, "hash of " + i);
+                        assertArrayEquals(plain[i].masks, gray[i].masks, "masks of " + i);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void bestSetDoesNotDependOnAddingOrder() {
+        Random random = new Random(7);
+
+        // boards with close steps and repeated boards with different orders
+        List<int[]> boards = new ArrayList<>();
+        List<Long> orders = new ArrayList<>();
+        for (int k = 0; k < 200; ++k) {
+            int[] masks = BugTestBoards.getMasks(BugTestBoards.random(random, 0.3));
+            for (int copies = 1 + random.nextInt(3); copies > 0; --copies) {
+                boards.add(masks);
+                orders.add((long) random.nextInt(1000));
+            }
+        }
+
+        BugFieldUtils.BugFieldBestSet expected = new BugFieldUtils.BugFieldBestSet(POPULATION_SIZE);
+        for (int i = 0; i < boards.size(); ++i) {
+            expected.add(BugField.create(boards.get(i)), orders.get(i));
+        }
+
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < boards.size(); ++i) {
+            indexes.add(i);
+        }
+
+        for (int attempt = 0; attempt < 5; ++attempt) {
+            Collections.shuffle(indexes, random);
+
+            // as workers do: local sets of random parts, merged into the total one
+            BugFieldUtils.BugFieldBestSet actual = new BugFieldUtils.BugFieldBestSet(POPULATION_SIZE);
+            for (int from = 0; from < indexes.size(); ) {
+                int to = Math.min(indexes.size(), from + 1 + random.nextInt(100));
+
+                BugFieldUtils.BugFieldBestSet local = new BugFieldUtils.BugFieldBestSet(POPULATION_SIZE);
+                for (int i = from; i < to; ++i) {
+                    int index = indexes.get(i);
+                    local.add(BugField.create(boards.get(index)), orders.get(index));
+                }
+
+                actual.addAll(local);
+                from = to;
+            }
+
+            assertEquals(getContent(expected), getContent(actual));
+        }
+    }
+
+    /**
+     * @return entries as "steps hash order" from the best one
+     */
+    private static List<String> getContent(BugFieldUtils.BugFieldBestSet bestFields) {
+        List<String> content = new ArrayList<>();
+        for (BugFieldUtils.BugFieldBestSet.Entry entry : bestFields.getEntries()) {
+            content.add(String.format("%d %x %d", entry.field.steps, entry.field.hash, entry.order));
+        }
+
+        content.sort(null);
+
+        return content;
+    }
+}
@@ -0,0 +1,167 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Differential tests of the fast engines against the plain ones: bitboard path check against BFS,
+ * corridor walk and walk resumed from the checkpoint against the cell by cell walk,
+ * and footprint skip against the full evaluation.
+ */
+class BugStepsCalculatorTest {
+
+    static final int N = BugField.SITE_N, M = BugField.SITE_M;
+
+    static final double[] WALL_PROBABILITIES = { 0.1, 0.2, 0.3, 0.4, 0.5 };
+    static final int RANDOM_BOARDS = 400;
+
+    private static BugAcmp.BugStepsCalculator createPlain() {
+        return new BugAcmp.BugStepsCalculator(N, M);
+    }
+
+    private static BugAcmp.BugStepsCalculator createFast() {
+        BugAcmp.BugStepsCalculator calculator = new BugAcmp.BugStepsCalculator(N, M);
+        calculator.setUseBitboard(true);
+        calculator.setUseCorridors(true);
+        calculator.setTrackVisited(true);
+
+        return calculator;
+    }
+
+    private static List<boolean[][]> getBoards(long seed) {
+        List<boolean[][]> walls = BugTestBoards.loadCorpus();
+
+        Random random = new Random(seed);
+        for (double wallProbability : WALL_PROBABILITIES) {
+            for (int k = 0; k < RANDOM_BOARDS; ++k) {
+                walls.add(BugTestBoards.random(random, wallProbability));
+            }
+        }
+
+        return walls;
+    }
+
+    /**
+     * @return steps of the plain engine, -1 if there is no path
+     */
+    private static int getPlainSteps(BugAcmp.BugStepsCalculator plain, boolean[][] wall) {
+        return plain.getResult(wall);
+    }
+
+    @Test
+    void bitboardPathCheckMatchesBfs() {
+        BugAcmp.BugStepsCalculator calculator = createPlain();
+
+        int connected = 0;
+        for (boolean[][] wall : getBoards(1)) {
+            calculator.getResult(wall);
+
+            boolean expected = calculator.checkPath();
+            assertEquals(expected, calculator.checkPathByMasks(BugTestBoards.getMasks(wall)));
+            assertEquals(expected, calculator.checkPathByMasks());
+
+            if (expected) ++connected;
+        }
+
+        // both outcomes are checked
+        assertTrue(connected > 0);
+        assertTrue(connected < RANDOM_BOARDS * WALL_PROBABILITIES.length);
+    }
+
+    @Test
+    void corridorWalkMatchesCellWalk() {
+        BugAcmp.BugStepsCalculator plain = createPlain(), fast = createFast();
+
+        for (boolean[][] wall : getBoards(2)) {
+            assertEquals(getPlainSteps(plain, wall), fast.getResult(wall, BugTestBoards.getMasks(wall)));
+        }
+    }
+
+    @Test
+    void resumedWalkMatchesCellWalk() {
+        BugAcmp.BugStepsCalculator plain = createPlain(), fast = createFast();
+        Random random = new Random(3);
+
+        int resumed = 0;
+        for (boolean[][] wall : getBoards(4)) {
+            for (int attempt = 0; attempt < 3; ++attempt) {
+                int sizeX = 1 + random.nextInt(3), sizeY = 1 + random.nextInt(4);
+                int regionX = 1 + random.nextInt(N - 1 - sizeX), regionY = 1 + random.nextInt(M - 1 - sizeY);
+
+                BugAcmp.BugStepsCalculator.Checkpoint checkpoint = fast.createCheckpoint(wall, regionX, regionY, sizeX, sizeY);
+                if (checkpoint == null) break;
+
+                boolean[][] mutant = BugTestBoards.copy(wall);
+                for (int i = regionX; i < regionX + sizeX; ++i) {
+                    for (int j = regionY; j < regionY + sizeY; ++j) {
+                        mutant[i][j] = random.nextBoolean();
+                    }
+                }
+
+                mutant[1][1] = false;
+                mutant[N - 2][M - 2] = false;
+
+                assertEquals(getPlainSteps(plain, mutant), fast.resume(checkpoint, mutant, BugTestBoards.getMasks(mutant)));
+                ++resumed;
+            }
+        }
+
+        assertTrue(resumed > 0);
+    }
+
+    @Test
+    void footprintSkipKeepsSteps() {
+        BugAcmp.BugStepsCalculator plain = createPlain(), fast = createFast();
+        Random random = new Random(5);
+
+        int[] footprint = new int[N];
+
+        int skipped = 0;
+        for (boolean[][] wall : getBoards(6)) {
+            int steps = fast.getResult(wall, BugTestBoards.getMasks(wall));
+            if (steps < 0) continue;
+
+            fast.fillFootprint(footprint);
+
+            List<int[]> windows = new ArrayList<>();
+            for (int attempt = 0; attempt < 20; ++attempt) {
+                int sizeX = 1 + random.nextInt(3), sizeY = 1 + random.nextInt(4);
+                int startX = 1 + random.nextInt(N - 1 - sizeX), startY = 1 + random.nextInt(M - 1 - sizeY);
+
+                if (!intersects(footprint, startX, startY, sizeX, sizeY)) {
+                    windows.add(new int[] { startX, startY, sizeX, sizeY });
+                }
+            }
+
+            for (int[] window : windows) {
+                boolean[][] mutant = BugTestBoards.copy(wall);
+                for (int i = window[0]; i < window[0] + window[2]; ++i) {
+                    for (int j = window[1]; j < window[1] + window[3]; ++j) {
+                        mutant[i][j] = random.nextBoolean();
+                    }
+                }
+
+                assertEquals(steps, getPlainSteps(plain, mutant));
+                ++skipped;
+            }
+        }
+
+        assertTrue(skipped > 0);
+    }
+
+    /**
+     * Same check as BugField.intersectsFootprint.
+     */
+    private static boolean intersects(int[] footprint, int startX, int startY, int sizeX, int sizeY) {
+        int windowMask = ((1 << sizeY) - 1) << startY;
+
+        for (int i = startX; i < startX + sizeX; ++i) {
+            if ((footprint[i] & windowMask) != 0) return true;
+        }
+
+        return false;
+    }
+}
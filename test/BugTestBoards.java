@@ -0,0 +1,98 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Boards of the tests: the benchmark corpus (resources corpus/{name}.txt, '#' is a wall) and random boards.
+ */
+class BugTestBoards {
+
+    static final String[] CORPUS = {
+            "empty", "random-10", "random-20", "random-30", "random-40",
+            "best-1", "best-2", "best-3", "best-4"
+    };
+
+    static boolean[][] load(String name) {
+        try (InputStream in = BugTestBoards.class.getResourceAsStream("/corpus/" + name + ".txt")) {
+            if (in == null) throw new IllegalArgumentException("No board " + name + " in the corpus");
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+
+            List<String> rows = new ArrayList<>();
+            for (String row; (row = reader.readLine()) != null; ) {
+                if (!row.isEmpty()) rows.add(row);
+            }
+
+            boolean[][] wall = new boolean[rows.size()][];
+            for (int i = 0; i < wall.length; ++i) {
+                String row = rows.get(i);
+
+                wall[i] = new boolean[row.length()];
+                for (int j = 0; j < row.length(); ++j) {
+                    wall[i][j] = (row.charAt(j) == '#');
+                }
+            }
+
+            return wall;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static List<boolean[][]> loadCorpus() {
+        List<boolean[][]> walls = new ArrayList<>();
+        for (String name : CORPUS) {
+            walls.add(load(name));
+        }
+
+        return walls;
+    }
+
+    /**
+     * Border is walls, the start and the end are free, other cells are walls with the given probability.
+     */
+    static boolean[][] random(Random random, double wallProbability) {
+        int n = BugField.SITE_N, m = BugField.SITE_M;
+
+        boolean[][] wall = new boolean[n][m];
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < m; ++j) {
+                boolean border = (i == 0 || j == 0 || i == n - 1 || j == m - 1);
+                wall[i][j] = border || random.nextDouble() < wallProbability;
+            }
+        }
+
+        wall[1][1] = false;
+        wall[n - 2][m - 2] = false;
+
+        return wall;
+    }
+
+    static boolean[][] copy(boolean[][] wall) {
+        boolean[][] copy = new boolean[wall.length][];
+        for (int i = 0; i < wall.length; ++i) {
+            copy[i] = wall[i].clone();
+        }
+
+        return copy;
+    }
+
+    /**
+     * Bit j of masks[i] is set if cell (i, j) is a wall.
+     */
+    static int[] getMasks(boolean[][] wall) {
+        int[] masks = new int[wall.length];
+        for (int i = 0; i < wall.length; ++i) {
+            for (int j = 0; j < wall[i].length; ++j) {
+                if (wall[i][j]) masks[i] |= 1 << j;
+            }
+        }
+
+        return masks;
+    }
+}